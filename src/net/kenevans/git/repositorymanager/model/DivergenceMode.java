@@ -0,0 +1,40 @@
+package net.kenevans.git.repositorymanager.model;
+
+/**
+ * DivergenceMode determines which pairs of local and remote branches are
+ * compared when calculating how far ahead and behind the branches are.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public enum DivergenceMode {
+    /** Compare each local branch only with its configured upstream. */
+    UPSTREAM("Upstream only"),
+    /**
+     * Compare each local branch with its configured upstream and with the
+     * branch of the same name on each remote.
+     */
+    UPSTREAM_AND_SAME_NAME("Upstream and same-name remote branches"),
+    /**
+     * Compare every local branch with every remote branch. This is expensive
+     * and is only used for an explicit deep analysis.
+     */
+    DEEP("All local and remote branch pairs");
+
+    private String description;
+
+    DivergenceMode(String description) {
+        this.description = description;
+    }
+
+    /**
+     * @return The value of description.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,173 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ExcludeMatcher decides whether a directory is excluded. Exclude entries
+ * that are paths are kept in a hash set of Paths in normalized absolute and
+ * real form. A directory matches if its normalized absolute path or its real
+ * path is in the set, so it matches however it is written, through symbolic
+ * links, and with the case the file system ignores. Entries with glob
+ * characters, such as **&#47;archive&#47;**, are compiled to PathMatchers and
+ * matched against the normalized absolute path. Patterns that are not valid
+ * are ignored.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class ExcludeMatcher
+{
+    /** The characters that make an exclude entry a glob pattern. */
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final Set<Path> paths = new HashSet<>();
+    private final List<PathMatcher> matchers = new ArrayList<>();
+
+    /**
+     * ExcludeMatcher constructor.
+     *
+     * @param excludes The paths and glob patterns to exclude. May be null.
+     */
+    public ExcludeMatcher(List<String> excludes) {
+        if(excludes == null) {
+            return;
+        }
+        for(String exclude : excludes) {
+            if(exclude == null || exclude.trim().isEmpty()) {
+                continue;
+            }
+            exclude = exclude.trim();
+            if(isPattern(exclude)) {
+                try {
+                    matchers.add(compile(exclude));
+                } catch(PatternSyntaxException ex) {
+                    // Ignore it
+                }
+                continue;
+            }
+            Path path = Paths.get(exclude);
+            paths.add(normalize(path));
+            try {
+                paths.add(path.toRealPath());
+            } catch(IOException ex) {
+                // The normalized path is enough
+            }
+        }
+    }
+
+    /**
+     * Determines if an exclude entry is a glob pattern rather than a path.
+     *
+     * @param exclude
+     * @return
+     */
+    public static boolean isPattern(String exclude) {
+        for(int i = 0; i < GLOB_CHARS.length(); i++) {
+            if(exclude.indexOf(GLOB_CHARS.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a glob pattern.
+     *
+     * @param pattern
+     * @return
+     * @throws PatternSyntaxException If the pattern is not valid.
+     */
+    public static PathMatcher compile(String pattern) {
+        return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+    }
+
+    /**
+     * Determines if the given directory is excluded.
+     *
+     * @param path
+     * @return
+     */
+    public boolean matches(Path path) {
+        return matches(path, null);
+    }
+
+    /**
+     * Determines if the given directory is excluded, using its real path if
+     * it is already known, as from a cache.
+     *
+     * @param path
+     * @param realPath The real path of the directory. If null, it is found
+     *            if it is needed.
+     * @return
+     */
+    public boolean matches(Path path, Path realPath) {
+        if(isEmpty()) {
+            return false;
+        }
+        Path absolute = normalize(path);
+        if(paths.contains(absolute)) {
+            return true;
+        }
+        for(PathMatcher matcher : matchers) {
+            if(matcher.matches(absolute)) {
+                return true;
+            }
+        }
+        if(!hasPaths()) {
+            return false;
+        }
+        if(realPath == null) {
+            try {
+                realPath = path.toRealPath();
+            } catch(IOException ex) {
+                return false;
+            }
+        }
+        return paths.contains(realPath);
+    }
+
+    /**
+     * Determines if the given directory is excluded.
+     *
+     * @param file
+     * @return
+     */
+    public boolean matches(File file) {
+        return matches(file.toPath());
+    }
+
+    /**
+     * @return If nothing is excluded.
+     */
+    public boolean isEmpty() {
+        return paths.isEmpty() && matchers.isEmpty();
+    }
+
+    /**
+     * @return If there are exclude entries that are paths, for which the
+     *         real path of a directory is needed.
+     */
+    public boolean hasPaths() {
+        return !paths.isEmpty();
+    }
+
+    /**
+     * Gets the normalized absolute form of a path.
+     *
+     * @param path
+     * @return
+     */
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+}
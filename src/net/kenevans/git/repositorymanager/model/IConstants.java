@@ -59,6 +59,21 @@ public interface IConstants
     public static final String P_REPOSITORY_LOCATIONS = "repositoryLocations";
     /*** The default value for the for the repository locations. */
     public static final String D_REPOSITORY_LOCATIONS = "";
+    /** The default prune rules for the repository locations. */
+    public static final String[] D_PRUNE_RULES = {"node_modules", "build",
+        "target", ".gradle",};
+    /**
+     * The default maximum number of entries in a directory that is looked in
+     * for repositories.
+     */
+    public static final int D_MAX_DIRECTORY_ENTRIES = 10000;
+
+    /** The directory in the user home directory for the cache files. */
+    public static final String CONFIG_DIR_NAME = ".repositorymanager";
+    /** The name of the divergence cache file. */
+    public static final String DIVERGENCE_CACHE_FILE_NAME = "divergence.cache";
+    /** The name of the repository index file. */
+    public static final String REPOSITORY_INDEX_FILE_NAME = "repositories.index";
 
     /*** The preference name for the Git Extensions path. */
     public static final String P_GIT_EXTENSIONS_PATH = "gitExtensionsPath";
@@ -67,4 +82,65 @@ public interface IConstants
      */
     public static final String D_GIT_EXTENSIONS_PATH = "C:\\Program Files (x86)\\GitExtensions\\GitExtensions.exe";
 
+    /*** The preference name for the number of refresh threads. */
+    public static final String P_REFRESH_THREADS = "refreshThreads";
+    /*** The default value for the number of refresh threads. */
+    public static final int D_REFRESH_THREADS = Runtime.getRuntime()
+        .availableProcessors();
+
+    /*** The preference name for the maximum number of open repositories. */
+    public static final String P_MAX_OPEN_REPOSITORIES = "maxOpenRepositories";
+    /*** The default value for the maximum number of open repositories. */
+    public static final int D_MAX_OPEN_REPOSITORIES = 64;
+
+    /*** The preference name for the maximum number of open pack files. */
+    public static final String P_MAX_OPEN_PACK_FILES = "maxOpenPackFiles";
+    /*** The default value for the maximum number of open pack files. */
+    public static final int D_MAX_OPEN_PACK_FILES = 128;
+
+    /*** The preference name for the pack file cache memory in MB. */
+    public static final String P_PACK_MEMORY_MB = "packMemoryMb";
+    /*** The default value for the pack file cache memory in MB. */
+    public static final int D_PACK_MEMORY_MB = 32;
+
+    /*** The preference name for the divergence mode. */
+    public static final String P_DIVERGENCE_MODE = "divergenceMode";
+    /*** The default value for the divergence mode. */
+    public static final DivergenceMode D_DIVERGENCE_MODE = DivergenceMode.UPSTREAM_AND_SAME_NAME;
+
+    /*** The preference name for the number of cached divergences. */
+    public static final String P_DIVERGENCE_CACHE_SIZE = "divergenceCacheSize";
+    /*** The default value for the number of cached divergences. */
+    public static final int D_DIVERGENCE_CACHE_SIZE = 100000;
+
+    /*** The preference name for the depth to look for repositories. */
+    public static final String P_DISCOVERY_DEPTH = "discoveryDepth";
+    /*** The default value for the depth to look for repositories. */
+    public static final int D_DISCOVERY_DEPTH = 1;
+
+    /*** The preference name for whether to monitor the repositories. */
+    public static final String P_MONITOR = "monitor";
+    /*** The default value for whether to monitor the repositories. */
+    public static final boolean D_MONITOR = false;
+
+    /*** The preference name for whether to monitor the working trees. */
+    public static final String P_MONITOR_WORK_TREES = "monitorWorkTrees";
+    /*** The default value for whether to monitor the working trees. */
+    public static final boolean D_MONITOR_WORK_TREES = false;
+
+    /*** The preference name for the monitor delay in ms. */
+    public static final String P_MONITOR_DELAY_MS = "monitorDelayMs";
+    /*** The default value for the monitor delay in ms. */
+    public static final int D_MONITOR_DELAY_MS = 500;
+
+    /*** The preference name for the monitor poll interval in seconds. */
+    public static final String P_MONITOR_POLL_SEC = "monitorPollSec";
+    /*** The default value for the monitor poll interval in seconds. */
+    public static final int D_MONITOR_POLL_SEC = 60;
+
+    /*** The preference name for the maximum number of watched directories. */
+    public static final String P_MAX_WATCHES = "maxWatches";
+    /*** The default value for the maximum number of watched directories. */
+    public static final int D_MAX_WATCHES = 4096;
+
 }
@@ -0,0 +1,124 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * PruneMatcher decides which directories the crawl for repositories does not
+ * go into, such as build output and dependency directories. Prune rules
+ * without glob characters are directory names and are kept in a hash set.
+ * Rules with glob characters are compiled to PathMatchers, which are matched
+ * against the directory name, or against the normalized absolute path if the
+ * rule has a slash. The rules for the name are matched separately, so they
+ * can be checked before the directory is read. Rules that are not valid are
+ * ignored.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class PruneMatcher
+{
+    /** The rule for each directory name. */
+    private final Map<String, String> names = new HashMap<>();
+    /** The rule for each glob that is matched against the name. */
+    private final Map<PathMatcher, String> nameMatchers = new LinkedHashMap<>();
+    /** The rule for each glob that is matched against the path. */
+    private final Map<PathMatcher, String> pathMatchers = new LinkedHashMap<>();
+
+    /**
+     * PruneMatcher constructor.
+     *
+     * @param rules The directory names and glob patterns. May be null.
+     */
+    public PruneMatcher(List<String> rules) {
+        if(rules == null) {
+            return;
+        }
+        for(String rule : rules) {
+            if(rule == null || rule.trim().isEmpty()) {
+                continue;
+            }
+            rule = rule.trim();
+            if(!ExcludeMatcher.isPattern(rule)) {
+                names.put(rule, rule);
+                continue;
+            }
+            try {
+                if(rule.indexOf('/') >= 0) {
+                    pathMatchers.put(ExcludeMatcher.compile(rule), rule);
+                } else {
+                    nameMatchers.put(ExcludeMatcher.compile(rule), rule);
+                }
+            } catch(PatternSyntaxException ex) {
+                // Ignore it
+            }
+        }
+    }
+
+    /**
+     * Gets the rule that prunes the given directory.
+     *
+     * @param dir
+     * @return The rule or null if it is not pruned.
+     */
+    public String match(Path dir) {
+        String rule = matchName(dir);
+        return rule != null ? rule : matchPath(dir);
+    }
+
+    /**
+     * Gets the rule for the name of the given directory that prunes it. Only
+     * the name is used, so the file system is not accessed.
+     *
+     * @param dir
+     * @return The rule or null if no rule for the name prunes it.
+     */
+    public String matchName(Path dir) {
+        Path name = dir.getFileName();
+        if(name == null) {
+            return null;
+        }
+        String rule = names.get(name.toString());
+        if(rule != null) {
+            return rule;
+        }
+        for(Map.Entry<PathMatcher, String> entry : nameMatchers.entrySet()) {
+            if(entry.getKey().matches(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the rule for the path of the given directory that prunes it.
+     *
+     * @param dir
+     * @return The rule or null if no rule for the path prunes it.
+     */
+    public String matchPath(Path dir) {
+        if(pathMatchers.isEmpty()) {
+            return null;
+        }
+        Path absolute = dir.toAbsolutePath().normalize();
+        for(Map.Entry<PathMatcher, String> entry : pathMatchers.entrySet()) {
+            if(entry.getKey().matches(absolute)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return If nothing is pruned.
+     */
+    public boolean isEmpty() {
+        return names.isEmpty() && nameMatchers.isEmpty()
+            && pathMatchers.isEmpty();
+    }
+
+}
@@ -0,0 +1,170 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.kenevans.git.repositorymanager.utils.RepositoryPool;
+
+/**
+ * RefreshEngine calculates the state of repositories on a bounded pool of
+ * worker threads so the calculation does not run on the event dispatch
+ * thread. The repositories are opened through a RepositoryPool, which is
+ * shared by the jobs and emptied when the last running job finishes.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RefreshEngine implements IConstants
+{
+    private int threadCount;
+    private ExecutorService executor;
+    private final RepositoryPool pool;
+    /** The number of jobs that have been started and not finished. */
+    private int runningJobs;
+    private DivergenceMode divergenceMode = D_DIVERGENCE_MODE;
+
+    /**
+     * RefreshEngine constructor.
+     *
+     * @param threadCount The number of worker threads.
+     * @param maxOpenRepositories The maximum number of repositories to keep
+     *            open.
+     */
+    public RefreshEngine(int threadCount, int maxOpenRepositories) {
+        this.threadCount = Math.max(1, threadCount);
+        this.pool = new RepositoryPool(maxOpenRepositories);
+    }
+
+    /**
+     * Starts calculating the state of the given repositories. Returns
+     * immediately. The listener is called from the worker threads.
+     *
+     * @param models
+     * @param skipUnchanged Whether to keep the state of repositories whose
+     *            RepositoryFingerprint has not changed. Otherwise all are
+     *            calculated.
+     * @param listener May be null.
+     * @return The job, which can be used to wait for the results.
+     */
+    public synchronized RefreshJob start(List<RepositoryModel> models,
+        boolean skipUnchanged, RefreshListener listener) {
+        RefreshJob job = new RefreshJob(this, models, divergenceMode,
+            skipUnchanged, listener);
+        runningJobs++;
+        job.start(getExecutor(), threadCount);
+        return job;
+    }
+
+    /**
+     * Called by a job when it finishes. Closes the repositories in the pool
+     * if no other job is using them.
+     */
+    synchronized void jobFinished() {
+        runningJobs--;
+        if(runningJobs == 0) {
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Gets the executor, creating it if necessary.
+     *
+     * @return
+     */
+    private ExecutorService getExecutor() {
+        if(executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                            "RefreshEngine-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the worker threads. Jobs already started will finish.
+     */
+    public synchronized void shutdown() {
+        if(executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * @return The pool used to open repositories.
+     */
+    public RepositoryPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return The value of divergenceMode.
+     */
+    public synchronized DivergenceMode getDivergenceMode() {
+        return divergenceMode;
+    }
+
+    /**
+     * Sets the branch pairs to compare. Takes effect for the next job.
+     *
+     * @param divergenceMode The new value for divergenceMode.
+     */
+    public synchronized void setDivergenceMode(DivergenceMode divergenceMode) {
+        this.divergenceMode = divergenceMode;
+    }
+
+    /**
+     * @return The value of threadCount.
+     */
+    public synchronized int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Sets the number of worker threads. Takes effect for the next job.
+     *
+     * @param threadCount The new value for threadCount.
+     */
+    public synchronized void setThreadCount(int threadCount) {
+        threadCount = Math.max(1, threadCount);
+        if(threadCount == this.threadCount) {
+            return;
+        }
+        this.threadCount = threadCount;
+        shutdown();
+    }
+
+    /**
+     * RefreshListener is notified as the repositories are calculated. The
+     * methods are called from the worker threads.
+     */
+    public interface RefreshListener
+    {
+        /**
+         * Called when the state of a repository has been calculated or kept.
+         *
+         * @param model
+         * @param skipped Whether it was unchanged and kept its state.
+         */
+        void repositoryRefreshed(RepositoryModel model, boolean skipped);
+
+        /**
+         * Called once when all the repositories have been calculated.
+         *
+         * @param report
+         */
+        void refreshFinished(RefreshReport report);
+    }
+
+}
@@ -0,0 +1,272 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import net.kenevans.git.repositorymanager.model.RefreshEngine.RefreshListener;
+import net.kenevans.git.repositorymanager.utils.RepositoryPool;
+
+/**
+ * RefreshJob is one run of the RefreshEngine over a list of repositories. The
+ * repositories are taken from a shared priority queue by a fixed number of
+ * workers, and the listener is notified from the worker threads as each one
+ * finishes. They are taken in the order of the list, except that the ones
+ * given to prioritize(), such as the ones the user can see, are taken first.
+ * The engine closes the repositories in its pool when the last of its
+ * running jobs finishes. A job can be cancelled, in which case the workers
+ * stop after the repositories they are calculating, and the states already
+ * calculated are kept.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RefreshJob
+{
+    /** Orders the entries with the prioritized ones first. */
+    private static final Comparator<Entry> ENTRY_ORDER;
+    static {
+        ENTRY_ORDER = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                if(entry1.prioritized != entry2.prioritized) {
+                    return entry1.prioritized ? -1 : 1;
+                }
+                return Integer.compare(entry1.order, entry2.order);
+            }
+        };
+    }
+
+    private final List<RepositoryModel> models;
+    /** The index of each model in models. */
+    private final Map<RepositoryModel, Integer> indices;
+    /**
+     * The entries to calculate. A prioritized entry is added in addition to
+     * the one for the model's place in the list, so a model may be in the
+     * queue more than once.
+     */
+    private final PriorityBlockingQueue<Entry> queue;
+    /** Whether each model has been taken by a worker, 1 if it has. */
+    private final AtomicIntegerArray taken;
+    /** The number of models taken by the workers. */
+    private final AtomicInteger takenCount = new AtomicInteger();
+    /** Identifies the current set of prioritized models. */
+    private final AtomicInteger generation = new AtomicInteger();
+    private final RefreshEngine engine;
+    private final RepositoryPool pool;
+    private final DivergenceMode divergenceMode;
+    private final boolean skipUnchanged;
+    private final RefreshListener listener;
+    private final RefreshReport report = new RefreshReport();
+    private CountDownLatch latch;
+    private volatile boolean cancelled;
+
+    /**
+     * RefreshJob constructor.
+     *
+     * @param engine The engine, which has the pool to open the
+     *            repositories from.
+     * @param models The repositories to calculate.
+     * @param divergenceMode The branch pairs to compare.
+     * @param skipUnchanged Whether to keep the state of repositories whose
+     *            fingerprint has not changed.
+     * @param listener The listener to notify. May be null.
+     */
+    RefreshJob(RefreshEngine engine, List<RepositoryModel> models,
+        DivergenceMode divergenceMode, boolean skipUnchanged,
+        RefreshListener listener) {
+        this.models = new ArrayList<>(models);
+        this.indices = new IdentityHashMap<>(this.models.size());
+        this.queue = new PriorityBlockingQueue<>(Math.max(1, models.size()),
+            ENTRY_ORDER);
+        this.taken = new AtomicIntegerArray(models.size());
+        for(int i = 0; i < models.size(); i++) {
+            indices.put(this.models.get(i), i);
+            queue.add(new Entry(i, i, false, 0));
+        }
+        this.engine = engine;
+        this.pool = engine.getPool();
+        this.divergenceMode = divergenceMode;
+        this.skipUnchanged = skipUnchanged;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the workers on the given executor.
+     *
+     * @param executor
+     * @param nWorkers The maximum number of workers to use.
+     */
+    void start(ExecutorService executor, int nWorkers) {
+        nWorkers = Math.max(1, Math.min(nWorkers, models.size()));
+        latch = new CountDownLatch(nWorkers);
+        for(int i = 0; i < nWorkers; i++) {
+            executor.execute(new Worker());
+        }
+    }
+
+    /**
+     * Waits for the job to finish.
+     *
+     * @return The report for the job.
+     * @throws InterruptedException
+     */
+    public RefreshReport waitFor() throws InterruptedException {
+        latch.await();
+        return report;
+    }
+
+    /**
+     * Makes the given repositories the next ones to be calculated, in the
+     * order given, replacing the ones given before. Ones that are not
+     * in the job or have already been taken are ignored. May be called from
+     * any thread.
+     *
+     * @param prioritized
+     */
+    public void prioritize(Collection<RepositoryModel> prioritized) {
+        int gen = generation.incrementAndGet();
+        int order = 0;
+        for(RepositoryModel model : prioritized) {
+            Integer index = indices.get(model);
+            if(index != null && taken.get(index) == 0) {
+                queue.add(new Entry(index, order++, true, gen));
+            }
+        }
+    }
+
+    /**
+     * Takes the next model to calculate from the queue, skipping entries that
+     * were prioritized before the current ones and models that have already
+     * been taken.
+     *
+     * @return The model or null if there are no more.
+     */
+    private RepositoryModel take() {
+        Entry entry;
+        while(!cancelled && (entry = queue.poll()) != null) {
+            if(entry.prioritized && entry.generation != generation.get()) {
+                continue;
+            }
+            if(taken.compareAndSet(entry.index, 0, 1)) {
+                takenCount.incrementAndGet();
+                return models.get(entry.index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancels the job. The workers do not take any more repositories from
+     * the queue. Returns immediately. Use waitFor() to wait for the ones
+     * being calculated to finish.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return If the job has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return If all of the workers have finished.
+     */
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * @return The report. It is only complete when the job is done.
+     */
+    public RefreshReport getReport() {
+        return report;
+    }
+
+    /**
+     * Called by each worker as it finishes. The last one finishes the report
+     * and notifies the listener.
+     */
+    private void workerFinished() {
+        synchronized(this) {
+            latch.countDown();
+            if(latch.getCount() != 0) {
+                return;
+            }
+            // It only stopped early if there were some left
+            if(cancelled && takenCount.get() < models.size()) {
+                report.setCancelled(true);
+            }
+            report.finish();
+        }
+        engine.jobFinished();
+        if(listener != null) {
+            listener.refreshFinished(report);
+        }
+    }
+
+    /**
+     * Worker calculates the state of repositories from the queue until it is
+     * empty or the job is cancelled. A repository that fails is recorded in
+     * the report and the worker goes on to the next one.
+     */
+    private class Worker implements Runnable
+    {
+        @Override
+        public void run() {
+            try {
+                RepositoryModel model;
+                while((model = take()) != null) {
+                    long start = System.nanoTime();
+                    boolean calculated;
+                    try {
+                        calculated = model.calculateState(pool,
+                            divergenceMode, skipUnchanged);
+                    } catch(RuntimeException ex) {
+                        // Go on to the rest
+                        report.addFailure(model, ex);
+                        continue;
+                    }
+                    report.add(model, System.nanoTime() - start, !calculated);
+                    if(listener != null) {
+                        listener.repositoryRefreshed(model, !calculated);
+                    }
+                }
+            } finally {
+                workerFinished();
+            }
+        }
+    }
+
+    /**
+     * Entry is a place in the queue for the model with the given index.
+     */
+    private static class Entry
+    {
+        private final int index;
+        /** The order among the prioritized or the other entries. */
+        private final int order;
+        private final boolean prioritized;
+        /** The generation it was prioritized in. */
+        private final int generation;
+
+        private Entry(int index, int order, boolean prioritized,
+            int generation) {
+            this.index = index;
+            this.order = order;
+            this.prioritized = prioritized;
+            this.generation = generation;
+        }
+    }
+
+}
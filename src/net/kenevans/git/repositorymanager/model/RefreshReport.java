@@ -0,0 +1,223 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * RefreshReport collects the statistics for one run of the RefreshEngine:
+ * the number of repositories refreshed, how many of them were unchanged and
+ * skipped, the elapsed time, the slowest repositories, and whether the run
+ * was cancelled before it finished.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RefreshReport implements IConstants
+{
+    /** The number of slowest repositories to keep. */
+    public static final int N_SLOWEST = 10;
+
+    private int totalCount;
+    private int skippedCount;
+    private long startTime;
+    private long endTime;
+    private boolean cancelled;
+    /** The repositories that failed, with the reason. */
+    private List<String> failures = new ArrayList<>();
+    private PriorityQueue<Timing> slowest = new PriorityQueue<>(N_SLOWEST,
+        new Comparator<Timing>() {
+            @Override
+            public int compare(Timing timing1, Timing timing2) {
+                return Long.compare(timing1.elapsed, timing2.elapsed);
+            }
+        });
+
+    /**
+     * RefreshReport constructor. Sets the start time to now.
+     */
+    public RefreshReport() {
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Records that a repository has been refreshed.
+     *
+     * @param model
+     * @param elapsed The time it took in ns.
+     * @param skipped Whether it was unchanged and was not calculated.
+     */
+    public synchronized void add(RepositoryModel model, long elapsed,
+        boolean skipped) {
+        totalCount++;
+        if(skipped) {
+            skippedCount++;
+            return;
+        }
+        if(slowest.size() < N_SLOWEST) {
+            slowest.add(new Timing(model, elapsed));
+        } else if(slowest.peek().elapsed < elapsed) {
+            slowest.poll();
+            slowest.add(new Timing(model, elapsed));
+        }
+    }
+
+    /**
+     * Records that calculating a repository failed with an unexpected
+     * exception.
+     *
+     * @param model
+     * @param ex
+     */
+    public synchronized void addFailure(RepositoryModel model,
+        Exception ex) {
+        failures.add(model.getFilePath() + ": " + ex);
+    }
+
+    /**
+     * @return The repositories that failed, with the reason.
+     */
+    public synchronized List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * Marks the report as finished. Sets the end time to now.
+     */
+    public synchronized void finish() {
+        endTime = System.nanoTime();
+    }
+
+    /**
+     * @return If the run was cancelled before all the repositories were
+     *         refreshed.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @param cancelled The new value for cancelled.
+     */
+    public synchronized void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return The value of totalCount.
+     */
+    public synchronized int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return The number of repositories that were unchanged and were not
+     *         calculated.
+     */
+    public synchronized int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return The elapsed time in ms.
+     */
+    public synchronized long getElapsedMs() {
+        long end = endTime == 0 ? System.nanoTime() : endTime;
+        return (end - startTime) / 1000000;
+    }
+
+    /**
+     * @return The number of repositories calculated per second.
+     */
+    public synchronized double getThroughput() {
+        long elapsedMs = getElapsedMs();
+        if(elapsedMs <= 0) {
+            return 0;
+        }
+        return 1000. * totalCount / elapsedMs;
+    }
+
+    /**
+     * @return The slowest repositories that were calculated, slowest first.
+     */
+    public synchronized List<Timing> getSlowest() {
+        List<Timing> list = new ArrayList<>(slowest);
+        Collections.sort(list, Collections.reverseOrder(slowest.comparator()));
+        return list;
+    }
+
+    /**
+     * Gets a one-line summary of the counts, time, and throughput.
+     *
+     * @return
+     */
+    public String getSummary() {
+        String summary = String.format(
+            "%s %d repositories (%d unchanged) in %.1f s (%.1f/s)",
+            isCancelled() ? "Cancelled after refreshing" : "Refreshed",
+            getTotalCount(), getSkippedCount(), getElapsedMs() / 1000.,
+            getThroughput());
+        int nFailed = getFailures().size();
+        if(nFailed > 0) {
+            summary += ", " + nFailed + " failed";
+        }
+        return summary;
+    }
+
+    /**
+     * Gets the summary followed by a list of the slowest repositories.
+     *
+     * @return
+     */
+    public String getDetails() {
+        String tab = "    ";
+        StringBuilder sb = new StringBuilder();
+        sb.append(getSummary() + LS);
+        List<String> failed = getFailures();
+        if(failed.size() > 0) {
+            sb.append("Failed" + LS);
+            for(String failure : failed) {
+                sb.append(tab + failure + LS);
+            }
+        }
+        List<Timing> list = getSlowest();
+        if(list.size() > 0) {
+            sb.append("Slowest" + LS);
+            for(Timing timing : list) {
+                sb.append(String.format("%s%d ms %s", tab,
+                    timing.elapsed / 1000000, timing.model.getFilePath()) + LS);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Timing is the time to calculate the state of one repository.
+     */
+    public static class Timing
+    {
+        private final RepositoryModel model;
+        private final long elapsed;
+
+        public Timing(RepositoryModel model, long elapsed) {
+            this.model = model;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return The value of model.
+         */
+        public RepositoryModel getModel() {
+            return model;
+        }
+
+        /**
+         * @return The elapsed time in ms.
+         */
+        public long getElapsedMs() {
+            return elapsed / 1000000;
+        }
+    }
+
+}
@@ -0,0 +1,577 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.Constants;
+
+import net.kenevans.git.repositorymanager.utils.GitLocation;
+
+/**
+ * RepositoryDiscovery finds the repositories under a set of parent
+ * directories. The directories are crawled in parallel on a ForkJoinPool,
+ * with each directory listed once and each subdirectory crawled as its own
+ * task. A directory that has a .git directory or .git file, or that is a
+ * bare repository, is a repository, and the crawl does not go below it.
+ * Instead, the checked out submodules of a repository and the linked working
+ * trees made from it with git worktree are added, wherever they are.<br>
+ * <br>
+ * Each directory is only looked in once, however it is reached, and each
+ * repository is only included once, however many ways it is reached. They
+ * are identified by their file key, which is the device and inode where the
+ * file system has them, otherwise by their real path, so a symbolic link to a
+ * directory that has already been looked in, including one that makes a
+ * cycle, is not followed.<br>
+ * <br>
+ * Excluded directories are skipped without being looked in. Directories
+ * that match a prune rule, such as build output and dependency directories,
+ * are not looked in either, nor are directories with more than a maximum
+ * number of entries, and the number each rule pruned is counted. A
+ * repository is found even if it matches a prune rule. The rules for names
+ * are checked before a directory is read, so a pruned directory only costs
+ * the check for a .git. Directories that cannot be read
+ * are recorded as errors and the rest of the crawl continues. A
+ * DiscoveryListener can be given to get the repositories as they are found,
+ * and a discover() in progress can be cancelled from another thread.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryDiscovery implements IConstants
+{
+    /** The number of threads to crawl with. The work is mostly I/O. */
+    private static final int PARALLELISM = Math.max(4,
+        2 * Runtime.getRuntime().availableProcessors());
+
+    private int maxDepth = D_DISCOVERY_DEPTH;
+    private List<String> errors = new ArrayList<>();
+    private ExcludeMatcher excludes = new ExcludeMatcher(null);
+    private PruneMatcher prune = new PruneMatcher(null);
+    /** The maximum entries in a directory that is looked in. 0 is no limit. */
+    private int maxEntries;
+    /** The number of directories pruned by each rule. */
+    private ConcurrentHashMap<String, AtomicInteger> pruneCounts = new ConcurrentHashMap<>();
+    private DiscoveryListener listener;
+    /** The identities of the directories that have been looked in. */
+    private Set<Object> visitedDirs;
+    /** The identities of the git directories of the repositories found. */
+    private Set<Object> foundGitDirs;
+    /** The real paths found for paths without a file key. */
+    private ConcurrentHashMap<Path, Path> realPaths;
+    /**
+     * Whether discover() has been cancelled. It stays set until
+     * resetCancelled(), so a cancel before discover() starts is not lost.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Finds the repositories under the given parent directories.
+     *
+     * @param parentDirectories
+     * @return The working tree directories of the repositories found, or the
+     *         repository directories for bare ones, in no particular order.
+     */
+    public List<File> discover(List<String> parentDirectories) {
+        return discover(parentDirectories, null);
+    }
+
+    /**
+     * Finds the repositories under the given parent directories. Excluded
+     * directories are not included or looked in.
+     *
+     * @param parentDirectories
+     * @param excludes The directories to exclude. May be null.
+     * @return The working tree directories of the repositories found, or the
+     *         repository directories for bare ones, in no particular order.
+     */
+    public List<File> discover(List<String> parentDirectories,
+        ExcludeMatcher excludes) {
+        return discover(parentDirectories, null, excludes, null);
+    }
+
+    /**
+     * Finds the repositories under the given parent directories and the
+     * given individual repositories. Excluded directories are not included or
+     * looked in. An individual repository that has already been found under a
+     * parent directory is not included again. One that is not a repository
+     * is still included, so it can be shown as not found. The listener is
+     * notified of each repository as it is found.
+     *
+     * @param parentDirectories
+     * @param individualRepositories May be null.
+     * @param excludes The directories to exclude. May be null.
+     * @param listener The listener to notify. May be null.
+     * @return The working tree directories of the repositories found, or the
+     *         repository directories for bare ones, in no particular order
+     *         except that the individual repositories are last.
+     */
+    public synchronized List<File> discover(List<String> parentDirectories,
+        List<String> individualRepositories, ExcludeMatcher excludes,
+        DiscoveryListener listener) {
+        errors = Collections.synchronizedList(new ArrayList<String>());
+        pruneCounts = new ConcurrentHashMap<>();
+        this.excludes = excludes != null ? excludes : new ExcludeMatcher(null);
+        this.listener = listener;
+        visitedDirs = Collections
+            .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        foundGitDirs = Collections
+            .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+        realPaths = new ConcurrentHashMap<>();
+        final List<CrawlTask> tasks = new ArrayList<>();
+        // Mark all the parent directories first, so one inside another is
+        // crawled from its own depth
+        for(String dirName : parentDirectories) {
+            Path dir = Paths.get(dirName);
+            if(isExcluded(dir)) {
+                continue;
+            }
+            if(!Files.isDirectory(dir)) {
+                errors.add("Parent directory not found: " + dirName);
+                continue;
+            }
+            if(visitedDirs.add(getIdentity(dir))) {
+                tasks.add(new CrawlTask(dir, getRealPath(dir), 0));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        List<File> found;
+        try {
+            found = pool.invoke(new RecursiveTask<List<File>>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected List<File> compute() {
+                    return joinAll(tasks);
+                }
+            });
+            if(individualRepositories != null && !cancelled) {
+                addIndividualRepositories(found, individualRepositories);
+            }
+        } finally {
+            pool.shutdown();
+            this.listener = null;
+        }
+        return found;
+    }
+
+    /**
+     * Adds the individual repositories that are not excluded and have not
+     * already been found.
+     *
+     * @param found
+     * @param individualRepositories
+     */
+    private void addIndividualRepositories(List<File> found,
+        List<String> individualRepositories) {
+        for(String dirName : individualRepositories) {
+            File dir = new File(dirName);
+            if(isExcluded(dir.toPath())) {
+                continue;
+            }
+            GitLocation location = GitLocation.resolve(dir);
+            Object identity = location != null
+                ? getIdentity(location.getGitDir().toPath())
+                : dir.toPath().toAbsolutePath().normalize();
+            if(foundGitDirs.add(identity)) {
+                found.add(dir);
+                if(listener != null) {
+                    listener.repositoryFound(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets what identifies the given file however it is reached, which is
+     * its file key if the file system has them, otherwise its real path.
+     *
+     * @param path
+     * @param attrs The attributes of the file, following links.
+     * @return
+     */
+    private Object getIdentity(Path path, BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key != null ? key : getRealPath(path);
+    }
+
+    /**
+     * Gets what identifies the given file however it is reached.
+     *
+     * @param path
+     * @return
+     */
+    private Object getIdentity(Path path) {
+        try {
+            return getIdentity(path,
+                Files.readAttributes(path, BasicFileAttributes.class));
+        } catch(IOException ex) {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+
+    /**
+     * Determines if a directory is excluded. Its real path, if needed, comes
+     * from the cache.
+     *
+     * @param path
+     * @return
+     */
+    private boolean isExcluded(Path path) {
+        if(excludes.isEmpty()) {
+            return false;
+        }
+        return excludes.matches(path,
+            excludes.hasPaths() ? getRealPath(path) : null);
+    }
+
+    /**
+     * Determines if a directory is excluded, given its real path.
+     *
+     * @param path
+     * @param realPath
+     * @return
+     */
+    private boolean isExcluded(Path path, Path realPath) {
+        if(excludes.isEmpty()) {
+            return false;
+        }
+        return excludes.matches(path, realPath);
+    }
+
+    /**
+     * Gets the real path of the given file, which has no symbolic links.
+     * They are cached for the current discover().
+     *
+     * @param path
+     * @return The real path or the normalized absolute path if it cannot be
+     *         found.
+     */
+    private Path getRealPath(Path path) {
+        Path realPath = realPaths.get(path);
+        if(realPath == null) {
+            try {
+                realPath = path.toRealPath();
+            } catch(IOException ex) {
+                realPath = path.toAbsolutePath().normalize();
+            }
+            realPaths.put(path, realPath);
+        }
+        return realPath;
+    }
+
+    /**
+     * Adds a repository and its submodules and linked working trees that are
+     * not excluded. A repository that has already been found is not added
+     * again.
+     *
+     * @param found
+     * @param dir
+     * @param location
+     */
+    private void addRepository(List<File> found, File dir,
+        GitLocation location) {
+        if(!foundGitDirs.add(getIdentity(location.getGitDir().toPath()))) {
+            return;
+        }
+        found.add(dir);
+        if(listener != null) {
+            listener.repositoryFound(dir);
+        }
+        for(File submodule : location.getSubmodules()) {
+            GitLocation submoduleLocation = GitLocation.resolve(submodule);
+            if(submoduleLocation != null && !isExcluded(submodule.toPath())) {
+                addRepository(found, submodule, submoduleLocation);
+            }
+        }
+        for(File workTree : location.getLinkedWorkTrees()) {
+            GitLocation workTreeLocation = GitLocation.resolve(workTree);
+            if(workTreeLocation != null && !isExcluded(workTree.toPath())) {
+                addRepository(found, workTree, workTreeLocation);
+            }
+        }
+    }
+
+    /**
+     * Runs the given tasks and combines their results.
+     *
+     * @param tasks
+     * @return
+     */
+    private static List<File> joinAll(List<CrawlTask> tasks) {
+        List<File> found = new ArrayList<>();
+        for(CrawlTask task : RecursiveTask.invokeAll(tasks)) {
+            found.addAll(task.join());
+        }
+        return found;
+    }
+
+    /**
+     * Counts a directory pruned by the given rule.
+     *
+     * @param rule
+     */
+    private void countPruned(String rule) {
+        AtomicInteger count = pruneCounts.get(rule);
+        if(count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = pruneCounts.putIfAbsent(rule, newCount);
+            if(count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Cancels the discover() in progress. It stops looking in directories and
+     * returns the repositories found so far. If it has not started yet, it
+     * returns at once when it does. Does not wait, and may be called from any
+     * thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Clears a cancel so the next discover() runs. Call it when the work
+     * that calls discover() is started, before it can be cancelled.
+     */
+    public void resetCancelled() {
+        cancelled = false;
+    }
+
+    /**
+     * @return If the last discover() was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The errors from the last discover().
+     */
+    public synchronized List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * @return The number of directories each rule pruned in the last
+     *         discover(), sorted by rule. Rules that pruned nothing are not
+     *         included.
+     */
+    public synchronized Map<String, Integer> getPruneCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for(Map.Entry<String, AtomicInteger> entry : pruneCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @param prune The PruneMatcher for the directories not to look in. May
+     *            be null.
+     */
+    public synchronized void setPruneMatcher(PruneMatcher prune) {
+        this.prune = prune != null ? prune : new PruneMatcher(null);
+    }
+
+    /**
+     * @return The value of maxEntries.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of entries in a directory below a parent
+     * directory for it to be looked in. The parent directories are always
+     * looked in.
+     *
+     * @param maxEntries The new value for maxEntries. 0 means no limit.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * @return The value of maxDepth.
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the number of levels below a parent directory to look for
+     * repositories. 1 looks only at the directories in the parent directory.
+     *
+     * @param maxDepth The new value for maxDepth.
+     */
+    public synchronized void setMaxDepth(int maxDepth) {
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    /**
+     * DiscoveryListener is notified of the repositories as they are found.
+     */
+    public interface DiscoveryListener
+    {
+        /**
+         * Called once for each repository when it is found. It is called from
+         * the crawl threads.
+         *
+         * @param dir The working tree directory or the repository directory
+         *            for a bare repository.
+         */
+        void repositoryFound(File dir);
+    }
+
+    /**
+     * CrawlTask looks for repositories in the directories in one directory
+     * and crawls the ones that are not repositories if they are not too deep.
+     */
+    private class CrawlTask extends RecursiveTask<List<File>>
+    {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        /**
+         * The real path of dir. The real paths of the directories in it that
+         * are not symbolic links are made from it without looking them up.
+         */
+        private final Path realDir;
+        /** The depth of dir below the parent directory. */
+        private final int depth;
+
+        private CrawlTask(Path dir, Path realDir, int depth) {
+            this.dir = dir;
+            this.realDir = realDir;
+            this.depth = depth;
+        }
+
+        @Override
+        protected List<File> compute() {
+            List<File> found = new ArrayList<>();
+            List<CrawlTask> tasks = new ArrayList<>();
+            if(cancelled) {
+                return found;
+            }
+            // Read the entries before looking at any, so a directory with
+            // too many is pruned before any work is done on them
+            List<Path> paths = new ArrayList<>();
+            int limit = depth > 0 ? maxEntries : 0;
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for(Path path : stream) {
+                    if(cancelled) {
+                        return found;
+                    }
+                    if(limit > 0 && paths.size() >= limit) {
+                        countPruned("More than " + limit + " entries");
+                        return found;
+                    }
+                    paths.add(path);
+                }
+            } catch(IOException | DirectoryIteratorException ex) {
+                errors.add("Cannot read " + dir + ": " + ex.getMessage());
+            }
+            for(Path path : paths) {
+                if(cancelled) {
+                    break;
+                }
+                if(path.getFileName().toString().equals(Constants.DOT_GIT)) {
+                    continue;
+                }
+                // The name rules need only the name, but a repository is
+                // never pruned
+                String rule = prune.matchName(path);
+                if(rule != null && !isRepositoryCandidate(path)) {
+                    countPruned(rule);
+                    continue;
+                }
+                // Only a symbolic link needs a second read, to follow it
+                BasicFileAttributes attrs;
+                boolean link;
+                try {
+                    attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    link = attrs.isSymbolicLink();
+                    if(link) {
+                        attrs = Files.readAttributes(path,
+                            BasicFileAttributes.class);
+                    }
+                } catch(IOException ex) {
+                    // Such as a broken link
+                    continue;
+                }
+                if(!attrs.isDirectory()) {
+                    continue;
+                }
+                // Only a link has to be resolved to get its real path
+                Path realPath = link ? getRealPath(path)
+                    : realDir.resolve(path.getFileName());
+                if(isExcluded(path, realPath)) {
+                    continue;
+                }
+                GitLocation location = null;
+                // Only resolve the ones that look like repositories
+                if(rule != null || isRepositoryCandidate(path)) {
+                    location = GitLocation.resolve(path.toFile());
+                }
+                if(location == null) {
+                    if(rule == null) {
+                        rule = prune.matchPath(path);
+                    }
+                    if(rule != null) {
+                        countPruned(rule);
+                        continue;
+                    }
+                }
+                // A link to a directory that has been looked in, or that is
+                // being looked in, as for a cycle. Without file keys the
+                // real path identifies it.
+                Object key = attrs.fileKey();
+                if(!visitedDirs.add(key != null ? key : realPath)) {
+                    continue;
+                }
+                if(location != null && location.isSeparateGitDir()) {
+                    // It is found from its working tree
+                    continue;
+                }
+                if(location != null) {
+                    addRepository(found, path.toFile(), location);
+                } else if(depth + 1 < maxDepth) {
+                    tasks.add(new CrawlTask(path, realPath, depth + 1));
+                }
+            }
+            found.addAll(joinAll(tasks));
+            return found;
+        }
+
+        /**
+         * Determines if a directory looks like a repository, which is if it
+         * has a .git or a HEAD file.
+         *
+         * @param path
+         * @return
+         */
+        private boolean isRepositoryCandidate(Path path) {
+            return Files.exists(path.resolve(Constants.DOT_GIT))
+                || Files.isRegularFile(path.resolve(Constants.HEAD));
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.kenevans.git.repositorymanager.utils.RepositoryPool;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * RepositoryExporter writes the state of repositories to a CSV, JSON, or
+ * newline-delimited JSON file. The rows are made on a pool of worker threads
+ * and written in the order of the list as they become ready, so the file is
+ * streamed and only a few rows are held at a time. The files are written in
+ * UTF-8, whatever the platform charset is. The JSON is written with
+ * a Gson JsonWriter, one object per repository. A repository is only
+ * recalculated if its RepositoryFingerprint has changed since its state was
+ * calculated. Otherwise the last snapshot is used.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryExporter implements IConstants
+{
+    /** The number of rows made ahead of the one being written per thread. */
+    private static final int ROWS_AHEAD = 4;
+
+    private final int threadCount;
+    private final int maxOpenRepositories;
+    private final DivergenceMode divergenceMode;
+
+    /**
+     * Format is the kind of file to export.
+     */
+    public static enum Format {
+        /** Comma separated values, one row per repository. */
+        CSV("Comma Separated Values (CSV)", ".csv"),
+        /** A JSON array with an object for each repository. */
+        JSON("JSON", ".json"),
+        /** A JSON object for each repository, one per line. */
+        NDJSON("Newline Delimited JSON (NDJSON)", ".ndjson");
+
+        private String description;
+        private String extension;
+
+        Format(String description, String extension) {
+            this.description = description;
+            this.extension = extension;
+        }
+
+        /**
+         * @return The value of description.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /**
+         * @return The file extension, including the dot.
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * RepositoryExporter constructor.
+     *
+     * @param threadCount The number of worker threads.
+     * @param maxOpenRepositories The maximum number of repositories to keep
+     *            open.
+     * @param divergenceMode The branch pairs to compare for repositories that
+     *            are recalculated.
+     */
+    public RepositoryExporter(int threadCount, int maxOpenRepositories,
+        DivergenceMode divergenceMode) {
+        this.threadCount = Math.max(1, threadCount);
+        this.maxOpenRepositories = maxOpenRepositories;
+        this.divergenceMode = divergenceMode;
+    }
+
+    /**
+     * Writes a file in the given format for the given repositories, in the
+     * order given.
+     *
+     * @param models
+     * @param file
+     * @param format
+     * @throws IOException
+     */
+    public void write(List<RepositoryModel> models, File file, Format format)
+        throws IOException {
+        switch(format) {
+        case CSV:
+            writeCSV(models, file);
+            break;
+        case JSON:
+            writeJSON(models, file);
+            break;
+        case NDJSON:
+            writeNDJSON(models, file);
+            break;
+        }
+    }
+
+    /**
+     * Writes a CSV file with a row for each of the given repositories, in the
+     * order given.
+     *
+     * @param models
+     * @param file
+     * @throws IOException
+     */
+    public void writeCSV(List<RepositoryModel> models, File file)
+        throws IOException {
+        try(final BufferedWriter writer = new BufferedWriter(
+            newWriter(file))) {
+            // Headings
+            for(String heading : RepositoryModel.getCVSHeadings()) {
+                writer.write(heading + RepositoryModel.COMMA);
+            }
+            writer.write(LS);
+            export(models, new RowFormatter<String>() {
+                @Override
+                public String format(RepositoryModel model,
+                    RepositoryPool pool) {
+                    return model.getCVSInfo(pool);
+                }
+
+                @Override
+                public void write(RepositoryModel model, String row)
+                    throws IOException {
+                    writer.write(row);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes a JSON file with an array of objects, one for each of the given
+     * repositories, in the order given.
+     *
+     * @param models
+     * @param file
+     * @throws IOException
+     */
+    public void writeJSON(List<RepositoryModel> models, File file)
+        throws IOException {
+        try(final JsonWriter writer = new JsonWriter(
+            new BufferedWriter(newWriter(file)))) {
+            writer.beginArray();
+            export(models, new RowFormatter<RepositoryStateSnapshot>() {
+                @Override
+                public RepositoryStateSnapshot format(RepositoryModel model,
+                    RepositoryPool pool) {
+                    return model.getExportSnapshot(pool);
+                }
+
+                @Override
+                public void write(RepositoryModel model,
+                    RepositoryStateSnapshot row) throws IOException {
+                    model.writeJSON(writer, row);
+                }
+            });
+            writer.endArray();
+        }
+    }
+
+    /**
+     * Writes a newline-delimited JSON file with an object on each line for
+     * each of the given repositories, in the order given.
+     *
+     * @param models
+     * @param file
+     * @throws IOException
+     */
+    public void writeNDJSON(List<RepositoryModel> models, File file)
+        throws IOException {
+        try(final BufferedWriter writer = new BufferedWriter(
+            newWriter(file))) {
+            export(models, new RowFormatter<RepositoryStateSnapshot>() {
+                @Override
+                public RepositoryStateSnapshot format(RepositoryModel model,
+                    RepositoryPool pool) {
+                    return model.getExportSnapshot(pool);
+                }
+
+                @Override
+                public void write(RepositoryModel model,
+                    RepositoryStateSnapshot row) throws IOException {
+                    // A JsonWriter has one top-level value, and it writes
+                    // straight through, so use one for each line
+                    model.writeJSON(new JsonWriter(writer), row);
+                    writer.write('\n');
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens a UTF-8 Writer for the given file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static Writer newWriter(File file) throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(file),
+            StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Makes the rows for the given repositories on the worker threads and
+     * writes them in order. No more than ROWS_AHEAD rows per thread are made
+     * ahead of the one being written.
+     *
+     * @param models
+     * @param formatter
+     * @throws IOException
+     */
+    private <T> void export(List<RepositoryModel> models,
+        final RowFormatter<T> formatter) throws IOException {
+        final RepositoryPool pool = new RepositoryPool(maxOpenRepositories);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        Deque<Future<T>> pending = new ArrayDeque<>();
+        Deque<RepositoryModel> pendingModels = new ArrayDeque<>();
+        int maxPending = threadCount * ROWS_AHEAD;
+        try {
+            Iterator<RepositoryModel> iterator = models.iterator();
+            while(iterator.hasNext() || !pending.isEmpty()) {
+                while(iterator.hasNext() && pending.size() < maxPending) {
+                    final RepositoryModel model = iterator.next();
+                    pendingModels.add(model);
+                    pending.add(executor.submit(new Callable<T>() {
+                        @Override
+                        public T call() throws Exception {
+                            // Keeps the snapshot if it has not changed
+                            model.calculateState(pool, divergenceMode, true);
+                            return formatter.format(model, pool);
+                        }
+                    }));
+                }
+                formatter.write(pendingModels.poll(),
+                    getRow(pending.poll()));
+            }
+        } finally {
+            // Only needed if there was an error
+            for(Future<T> future : pending) {
+                future.cancel(false);
+            }
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Waits for a row to be made.
+     *
+     * @param future
+     * @return
+     * @throws IOException If it could not be made.
+     */
+    private static <T> T getRow(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch(ExecutionException ex) {
+            throw new IOException("Error exporting repository",
+                ex.getCause());
+        }
+    }
+
+    /**
+     * RowFormatter makes the row for a repository and writes it.
+     */
+    private interface RowFormatter<T>
+    {
+        /**
+         * Makes the row for a repository. Called from the worker threads.
+         *
+         * @param model
+         * @param pool The pool to get the Repository from.
+         * @return
+         * @throws Exception
+         */
+        T format(RepositoryModel model, RepositoryPool pool) throws Exception;
+
+        /**
+         * Writes a row. Called in the order of the repositories from the
+         * thread doing the export.
+         *
+         * @param model
+         * @param row
+         * @throws IOException
+         */
+        void write(RepositoryModel model, T row) throws IOException;
+    }
+
+}
@@ -0,0 +1,224 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+
+import net.kenevans.git.repositorymanager.utils.GitLocation;
+
+/**
+ * RepositoryFingerprint is a cheap summary of the modification times and
+ * sizes of the files that change when the state of a repository changes:
+ * HEAD, the index, packed-refs, FETCH_HEAD, config, everything under refs,
+ * and a sample of the top of the working tree. For linked working trees the
+ * shared files are taken from the common directory. If the fingerprint has not
+ * changed, the previous state can be reused. Changes deeper in the working
+ * tree that do not touch the index are not seen, so a full refresh does not
+ * use fingerprints.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public final class RepositoryFingerprint
+{
+    /** The files in the git directory that are included. */
+    private static final String[] GIT_FILES = {Constants.HEAD, "index"};
+    /**
+     * The files in the common directory that are included. They are shared
+     * by linked working trees.
+     */
+    private static final String[] COMMON_FILES = {Constants.PACKED_REFS,
+        "FETCH_HEAD", Constants.CONFIG};
+    /** The maximum number of working tree entries that are included. */
+    public static final int WORK_TREE_SAMPLE_SIZE = 64;
+    /**
+     * Times closer than this in ms to when the fingerprint was taken may
+     * belong to a change that is not finished, as for racy git.
+     */
+    private static final long RACY_MS = 2000;
+
+    private long hash;
+    private int count;
+    private long newest = Long.MIN_VALUE;
+
+    private RepositoryFingerprint() {
+    }
+
+    /**
+     * Takes the fingerprint of the repository in the given working tree or
+     * git directory.
+     *
+     * @param dir The working tree or the git directory.
+     * @return The fingerprint or null if there is no repository there or
+     *         something in it changed too recently to be sure of.
+     */
+    public static RepositoryFingerprint create(File dir) {
+        GitLocation location = GitLocation.resolve(dir);
+        if(location == null) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        RepositoryFingerprint fingerprint = new RepositoryFingerprint();
+        try {
+            Path gitPath = location.getGitDir().toPath();
+            Path commonPath = location.getCommonDir().toPath();
+            for(String name : GIT_FILES) {
+                fingerprint.add(gitPath.resolve(name));
+            }
+            for(String name : COMMON_FILES) {
+                fingerprint.add(commonPath.resolve(name));
+            }
+            fingerprint.addTree(commonPath.resolve(Constants.R_REFS));
+            if(location.getWorkTree() != null) {
+                fingerprint.addWorkTreeSample(location.getWorkTree().toPath(),
+                    gitPath);
+            }
+        } catch(IOException ex) {
+            return null;
+        }
+        if(fingerprint.newest > start - RACY_MS) {
+            // Too recent to tell if a later change would have a new time
+            return null;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Adds the modification time and size of the given path. A path that
+     * does not exist is added as such.
+     *
+     * @param path
+     * @throws IOException
+     */
+    private void add(Path path) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(NoSuchFileException ex) {
+            add(path, -1, -1);
+            return;
+        }
+        add(path, attrs);
+    }
+
+    /**
+     * Adds the given attributes.
+     *
+     * @param path
+     * @param attrs
+     */
+    private void add(Path path, BasicFileAttributes attrs) {
+        long modified = attrs.lastModifiedTime().to(TimeUnit.MILLISECONDS);
+        newest = Math.max(newest, modified);
+        add(path, modified, attrs.isDirectory() ? 0 : attrs.size());
+    }
+
+    /**
+     * Adds one entry. Entries are added so the order does not matter.
+     *
+     * @param path
+     * @param modified
+     * @param size
+     */
+    private void add(Path path, long modified, long size) {
+        long entry = path.hashCode();
+        entry = entry * 0x9E3779B97F4A7C15L + modified;
+        entry = entry * 0x9E3779B97F4A7C15L + size;
+        entry ^= entry >>> 31;
+        hash += entry;
+        count++;
+    }
+
+    /**
+     * Adds every directory and file under the given directory. Loose refs
+     * are replaced by renaming, so this also changes the times of the
+     * directories they are in.
+     *
+     * @param dir
+     * @throws IOException
+     */
+    private void addTree(Path dir) throws IOException {
+        if(!Files.isDirectory(dir)) {
+            add(dir, -1, -1);
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,
+                BasicFileAttributes attrs) {
+                add(path, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path,
+                BasicFileAttributes attrs) {
+                add(path, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path,
+                IOException ex) {
+                // A ref being renamed into place
+                add(path, -1, -1);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Adds the working tree directory and up to WORK_TREE_SAMPLE_SIZE of its
+     * entries. A directory changes time when entries are added or removed in
+     * it.
+     *
+     * @param workTree
+     * @param gitPath The git directory, which is not included.
+     * @throws IOException
+     */
+    private void addWorkTreeSample(Path workTree, Path gitPath)
+        throws IOException {
+        add(workTree);
+        int nSampled = 0;
+        try(DirectoryStream<Path> stream = Files
+            .newDirectoryStream(workTree)) {
+            for(Path path : stream) {
+                if(nSampled >= WORK_TREE_SAMPLE_SIZE) {
+                    break;
+                }
+                if(path.getFileName().toString().equals(Constants.DOT_GIT)
+                    || path.equals(gitPath)) {
+                    continue;
+                }
+                add(path);
+                nSampled++;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof RepositoryFingerprint)) {
+            return false;
+        }
+        RepositoryFingerprint other = (RepositoryFingerprint)obj;
+        return hash == other.hash && count == other.count;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int)(hash ^ (hash >>> 32)) * 31 + count;
+    }
+
+}
@@ -0,0 +1,113 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RepositoryIndex keeps the repositories found in the last session and their
+ * last known state, so the list can be shown at startup before the
+ * repositories are found again. It is kept in a binary file, which has a
+ * header followed by the path and the state flags of each repository.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryIndex
+{
+    /** Identifies the file. */
+    private static final int MAGIC = 0x52444958;
+    /** The version of the file format. */
+    private static final int VERSION = 1;
+    /** The flags written for a repository whose state was not calculated. */
+    private static final int NO_STATE = -1;
+
+    private final File file;
+
+    /**
+     * RepositoryIndex constructor. The file is not read until load() is
+     * called.
+     *
+     * @param file The file to keep the index in.
+     */
+    public RepositoryIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the file. The models have the restored state flags, which are
+     * replaced when they are next calculated. A missing file gives an empty
+     * list.
+     *
+     * @return The models in the order they were saved.
+     * @throws IOException If the file cannot be read or is not an index file.
+     */
+    public synchronized List<RepositoryModel> load() throws IOException {
+        List<RepositoryModel> models = new ArrayList<>();
+        if(!file.exists()) {
+            return models;
+        }
+        try(DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a repository index: " + file);
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                RepositoryModel model = new RepositoryModel(in.readUTF());
+                int flags = in.readInt();
+                if(flags != NO_STATE) {
+                    model.restoreState(flags);
+                }
+                models.add(model);
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Writes the given models to the file. It is written to a temporary file
+     * that then replaces the file.
+     *
+     * @param models
+     * @throws IOException
+     */
+    public synchronized void save(List<RepositoryModel> models)
+        throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(models.size());
+            for(RepositoryModel model : models) {
+                out.writeUTF(model.getFilePath());
+                RepositoryStateSnapshot snapshot = model.getSnapshot();
+                out.writeInt(snapshot == null ? NO_STATE
+                    : snapshot.getFlags() & ~RepositoryStateSnapshot.RESTORED);
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return The value of file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+}
@@ -4,6 +4,8 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.prefs.Preferences;
 
 import com.google.gson.Gson;
@@ -17,6 +19,22 @@ public class RepositoryLocations implements IConstants
     private ArrayList<String> parentDirectories = new ArrayList<>();
     private ArrayList<String> individualRepositories = new ArrayList<>();
     private ArrayList<String> excludeRepositories = new ArrayList<>();
+    /** The directory names and glob patterns the crawl does not go into. */
+    private ArrayList<String> pruneRules = new ArrayList<>(
+        Arrays.asList(D_PRUNE_RULES));
+    /**
+     * The crawl does not go into directories with more entries than this. 0
+     * means no limit.
+     */
+    private int maxDirectoryEntries = D_MAX_DIRECTORY_ENTRIES;
+    /** The matcher for excludeRepositories. Not stored. */
+    private transient ExcludeMatcher excludeMatcher;
+    /** The excludeRepositories the matcher was made from. Not stored. */
+    private transient List<String> excludeMatcherSource;
+    /** The matcher for pruneRules. Not stored. */
+    private transient PruneMatcher pruneMatcher;
+    /** The pruneRules the matcher was made from. Not stored. */
+    private transient List<String> pruneMatcherSource;
 
     /**
      * RepositoryLocations constructor that sets the parentDirectories and
@@ -51,11 +69,14 @@ public class RepositoryLocations implements IConstants
         for(String string : oldRepositoryLocations.getExcludeRepositories()) {
             excludeRepositories.add(string);
         }
+        pruneRules = new ArrayList<>(oldRepositoryLocations.getPruneRules());
+        maxDirectoryEntries = oldRepositoryLocations.getMaxDirectoryEntries();
     }
 
     /**
      * RepositoryLocations constructor that has empty lists for the
-     * parentDirectories, individualRepositories, and excludeRepositories.
+     * parentDirectories, individualRepositories, and excludeRepositories and
+     * the default prune rules.
      */
     public RepositoryLocations() {
     }
@@ -110,6 +131,9 @@ public class RepositoryLocations implements IConstants
             this.parentDirectories = newLocations.parentDirectories;
             this.individualRepositories = newLocations.individualRepositories;
             this.excludeRepositories = newLocations.excludeRepositories;
+            // These are the defaults if they were not stored
+            this.pruneRules = newLocations.getPruneRules();
+            this.maxDirectoryEntries = newLocations.maxDirectoryEntries;
         }
     }
 
@@ -199,4 +223,68 @@ public class RepositoryLocations implements IConstants
         this.excludeRepositories = excludeRepositories;
     }
 
+    /**
+     * @return The value of pruneRules.
+     */
+    public ArrayList<String> getPruneRules() {
+        if(pruneRules == null) {
+            pruneRules = new ArrayList<>();
+        }
+        return pruneRules;
+    }
+
+    /**
+     * @param pruneRules The new value for pruneRules.
+     */
+    public void setPruneRules(ArrayList<String> pruneRules) {
+        this.pruneRules = pruneRules;
+    }
+
+    /**
+     * @return The value of maxDirectoryEntries.
+     */
+    public int getMaxDirectoryEntries() {
+        return maxDirectoryEntries;
+    }
+
+    /**
+     * @param maxDirectoryEntries The new value for maxDirectoryEntries. 0
+     *            means no limit.
+     */
+    public void setMaxDirectoryEntries(int maxDirectoryEntries) {
+        this.maxDirectoryEntries = Math.max(0, maxDirectoryEntries);
+    }
+
+    /**
+     * Gets the PruneMatcher for pruneRules. It is made again only if they
+     * have changed.
+     * 
+     * @return
+     */
+    public synchronized PruneMatcher getPruneMatcher() {
+        List<String> rules = getPruneRules();
+        if(pruneMatcher == null || !rules.equals(pruneMatcherSource)) {
+            pruneMatcherSource = new ArrayList<>(rules);
+            pruneMatcher = new PruneMatcher(pruneMatcherSource);
+        }
+        return pruneMatcher;
+    }
+
+    /**
+     * Gets the ExcludeMatcher for excludeRepositories. It is made again only
+     * if they have changed, including changes made to the list returned by
+     * getExcludeRepositories().
+     * 
+     * @return
+     */
+    public synchronized ExcludeMatcher getExcludeMatcher() {
+        List<String> excludes = excludeRepositories != null
+            ? excludeRepositories : new ArrayList<String>();
+        if(excludeMatcher == null || !excludes.equals(excludeMatcherSource)) {
+            excludeMatcherSource = new ArrayList<>(excludes);
+            excludeMatcher = new ExcludeMatcher(excludeMatcherSource);
+        }
+        return excludeMatcher;
+    }
+
 }
@@ -1,7 +1,12 @@
 package net.kenevans.git.repositorymanager.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.jgit.api.Git;
@@ -10,11 +15,17 @@ import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.BranchConfig;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
+import com.google.gson.stream.JsonWriter;
+
+import net.kenevans.git.repositorymanager.model.RepositoryStateSnapshot.Divergence;
+import net.kenevans.git.repositorymanager.utils.GitLocation;
 import net.kenevans.git.repositorymanager.utils.JGitUtilities;
-import net.kenevans.git.repositorymanager.utils.Utils;
+import net.kenevans.git.repositorymanager.utils.JGitUtilities.RefPair;
+import net.kenevans.git.repositorymanager.utils.RepositoryPool;
 
 /**
  * RepositoryModel is a model for Git repository data.
@@ -25,14 +36,15 @@ public class RepositoryModel implements IConstants
 {
     private static final String TEST_REPOSITORY = "C:/eclipseWorkspaces/Work/JGit Examples";
     private File file;
-    private boolean isClean;
-    private boolean isAhead;
-    private boolean isBehind;
-    private boolean isNonTrackingAhead;
-    private boolean isNonTrackingBehind;
-    private boolean isNotTracking;
-    private boolean isNotFound;
-    private boolean isNoRemoteBranches;
+    /** The last calculated state or null if it has not been calculated. */
+    private volatile RepositoryStateSnapshot snapshot;
+    /**
+     * The fingerprint taken before the snapshot was calculated or null if it
+     * cannot be used to skip the next calculation.
+     */
+    private RepositoryFingerprint fingerprint;
+    /** The DivergenceMode the snapshot was calculated with. */
+    private DivergenceMode snapshotMode;
     private static final String[] CVS_HEADINGS = new String[] {"Name", "Clean",
         "Added", "Changed", "Conflicting", "Conflicting Stage State", "Ignored",
         "Missing", "Modified", "Removed:", "Untracked", "Untracked Folders",
@@ -52,107 +64,422 @@ public class RepositoryModel implements IConstants
         this.file = file;
     }
 
+    /**
+     * Calculates the state of the repository and replaces the snapshot,
+     * opening and closing the repository. Uses the default DivergenceMode.
+     */
     public void calculateState() {
-        Repository repository;
+        RepositoryPool pool = new RepositoryPool(1);
+        try {
+            calculateState(pool, D_DIVERGENCE_MODE);
+        } finally {
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Calculates the state of the repository and replaces the snapshot.
+     * 
+     * @param pool The pool to get the Repository from.
+     * @param mode Determines which branch pairs are compared.
+     */
+    public void calculateState(RepositoryPool pool, DivergenceMode mode) {
+        calculateState(pool, mode, false);
+    }
+
+    /**
+     * Calculates the state of the repository and replaces the snapshot. This
+     * is the only place the repository is read. It may be called from the
+     * RefreshEngine worker threads.
+     * 
+     * @param pool The pool to get the Repository from.
+     * @param mode Determines which branch pairs are compared.
+     * @param skipUnchanged Whether to keep the current snapshot if the
+     *            RepositoryFingerprint has not changed since it was
+     *            calculated.
+     * @return False if the current snapshot was kept, otherwise true.
+     */
+    public synchronized boolean calculateState(RepositoryPool pool,
+        DivergenceMode mode, boolean skipUnchanged) {
+        // Take the fingerprint first, so a change made during the
+        // calculation is seen next time
+        RepositoryFingerprint newFingerprint = RepositoryFingerprint
+            .create(file);
+        if(skipUnchanged && snapshot != null && snapshot.getError() == null
+            && mode == snapshotMode && newFingerprint != null
+            && newFingerprint.equals(fingerprint)) {
+            return false;
+        }
+        Repository repository = null;
         List<Ref> call, call1;
-        Status status;
         Git git;
-        isClean = false;
-        isAhead = false;
-        isBehind = false;
-        isNonTrackingAhead = false;
-        isNonTrackingBehind = false;
-        isNotTracking = false;
-        isNotFound = false;
-        isNoRemoteBranches = false;
+        String trackingBranch = null;
+        List<String> localBranches = new ArrayList<>();
+        List<String> remoteBranches = new ArrayList<>();
+        Map<String, String> remotes = new LinkedHashMap<>();
+        List<Divergence> divergences = new ArrayList<>();
+        String error = null;
+        boolean isClean = false;
+        boolean isAhead = false;
+        boolean isBehind = false;
+        boolean isNonTrackingAhead = false;
+        boolean isNonTrackingBehind = false;
+        boolean isNotTracking = false;
+        boolean isNotFound = false;
+        boolean isNoRemoteBranches = false;
+        boolean isBare = false;
         try {
-            try {
-                git = Git.open(file);
-            } catch(RepositoryNotFoundException ex) {
+            GitLocation location = GitLocation.resolve(file);
+            if(location == null) {
                 isNotFound = true;
-                return;
+                return true;
+            }
+            isBare = location.isBare();
+            repository = pool.acquire(location);
+            git = Git.wrap(repository);
+            // Only whether it is clean is needed here. The full status is
+            // calculated when the file lists are needed.
+            isClean = JGitUtilities.isClean(repository, location);
+
+            // Remotes
+            Config config = repository.getConfig();
+            for(String remoteName : config.getSubsections("remote")) {
+                remotes.put(remoteName,
+                    config.getString("remote", remoteName, "url"));
             }
-            status = git.status().call();
-            isClean = status.isClean();
-            repository = git.getRepository();
 
             // Tracking branch
-            String trackingBranch = new BranchConfig(repository.getConfig(),
-                repository.getBranch()).getTrackingBranch();
+            String fullBranch = JGitUtilities.getFullBranch(repository,
+                location);
+            if(fullBranch != null) {
+                trackingBranch = new BranchConfig(config,
+                    Repository.shortenRefName(fullBranch)).getTrackingBranch();
+            }
 
-            // Loop over local branches
-            String remoteName;
-            List<Integer> counts;
+            // List the branches once
             call = git.branchList().call();
-            if(call.size() > 0) {
-                for(Ref refLocal : call) {
-                    call1 = git.branchList().setListMode(ListMode.REMOTE)
-                        .call();
-                    if(call1.size() > 0) {
-                        for(Ref refRemote : call1) {
-                            remoteName = refRemote.getName();
-                            counts = JGitUtilities.calculateDivergence(
-                                repository, refLocal, refRemote);
-                            // Check if it is the tracking branch
-                            if(trackingBranch != null && remoteName != null
-                                && remoteName.equals(trackingBranch)) {
-                                if(counts.get(0) > 0) {
-                                    isAhead = true;
-                                }
-                                if(counts.get(1) > 0) {
-                                    isBehind = true;
-                                }
-                                if(counts.get(0) < 0 || counts.get(1) < 0) {
-                                    isNotTracking = true;
-                                }
-                            } else {
-                                if(counts.get(0) > 0) {
-                                    isNonTrackingAhead = true;
-                                }
-                                if(counts.get(1) > 0) {
-                                    isNonTrackingBehind = true;
-                                }
-                                if(counts.get(0) < 0 || counts.get(1) < 0) {
-                                    isNotTracking = true;
-                                }
-                            }
-                        }
-                    } else {
-                        isNoRemoteBranches = true;
+            call1 = git.branchList().setListMode(ListMode.REMOTE).call();
+            for(Ref refLocal : call) {
+                localBranches.add(refLocal.getName());
+            }
+            for(Ref refRemote : call1) {
+                remoteBranches.add(refRemote.getName());
+            }
+            if(call.size() > 0 && call1.size() == 0) {
+                isNoRemoteBranches = true;
+            } else if(call.size() > 0 && (trackingBranch == null
+                || !remoteBranches.contains(trackingBranch))) {
+                // The current branch does not track an existing remote branch
+                isNotTracking = true;
+            }
+
+            // Compare the branch pairs for the mode
+            divergences = calculateDivergences(repository,
+                getBranchPairs(config, call, call1, mode));
+            for(Divergence divergence : divergences) {
+                // Check if it is the tracking branch
+                if(divergence.getRemoteBranch().equals(trackingBranch)) {
+                    if(divergence.getAhead() > 0) {
+                        isAhead = true;
+                    }
+                    if(divergence.getBehind() > 0) {
+                        isBehind = true;
+                    }
+                } else {
+                    if(divergence.getAhead() > 0) {
+                        isNonTrackingAhead = true;
+                    }
+                    if(divergence.getBehind() > 0) {
+                        isNonTrackingBehind = true;
                     }
                 }
             }
         } catch(Exception ex) {
             ex.printStackTrace();
+            error = ex.toString();
+        } finally {
+            pool.release(repository);
+            int flags = 0;
+            if(isClean) flags |= RepositoryStateSnapshot.CLEAN;
+            if(isAhead) flags |= RepositoryStateSnapshot.AHEAD;
+            if(isBehind) flags |= RepositoryStateSnapshot.BEHIND;
+            if(isNonTrackingAhead)
+                flags |= RepositoryStateSnapshot.NON_TRACKING_AHEAD;
+            if(isNonTrackingBehind)
+                flags |= RepositoryStateSnapshot.NON_TRACKING_BEHIND;
+            if(isNotTracking) flags |= RepositoryStateSnapshot.NOT_TRACKING;
+            if(isNotFound) flags |= RepositoryStateSnapshot.NOT_FOUND;
+            if(isNoRemoteBranches)
+                flags |= RepositoryStateSnapshot.NO_REMOTE_BRANCHES;
+            if(isBare) flags |= RepositoryStateSnapshot.BARE;
+            snapshot = new RepositoryStateSnapshot(flags, null, trackingBranch,
+                localBranches, remoteBranches, remotes, divergences, error);
+            fingerprint = newFingerprint;
+            snapshotMode = mode;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the pairs of local and remote branches to compare for the given
+     * mode. The branches are listed once by the caller.
+     * 
+     * @param config The repository configuration.
+     * @param localRefs The local branches.
+     * @param remoteRefs The remote branches.
+     * @param mode
+     * @return
+     */
+    private static List<RefPair> getBranchPairs(Config config,
+        List<Ref> localRefs, List<Ref> remoteRefs, DivergenceMode mode) {
+        List<RefPair> pairs = new ArrayList<>();
+        if(mode == DivergenceMode.DEEP) {
+            for(Ref refLocal : localRefs) {
+                for(Ref refRemote : remoteRefs) {
+                    pairs.add(new RefPair(refLocal, refRemote));
+                }
+            }
+            return pairs;
+        }
+        Map<String, Ref> remoteMap = new HashMap<>();
+        for(Ref refRemote : remoteRefs) {
+            remoteMap.put(refRemote.getName(), refRemote);
+        }
+        Set<String> remoteNames = config.getSubsections("remote");
+        for(Ref refLocal : localRefs) {
+            String branchName = Repository.shortenRefName(refLocal.getName());
+            String upstream = new BranchConfig(config, branchName)
+                .getTrackingBranch();
+            Ref refUpstream = upstream == null ? null : remoteMap.get(upstream);
+            if(refUpstream != null) {
+                pairs.add(new RefPair(refLocal, refUpstream));
+            }
+            if(mode == DivergenceMode.UPSTREAM_AND_SAME_NAME) {
+                for(String remoteName : remoteNames) {
+                    Ref refRemote = remoteMap.get(
+                        Constants.R_REMOTES + remoteName + "/" + branchName);
+                    if(refRemote != null && refRemote != refUpstream) {
+                        pairs.add(new RefPair(refLocal, refRemote));
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Calculates the ahead and behind counts for the given branch pairs in one
+     * walk.
+     * 
+     * @param repository
+     * @param pairs
+     * @return
+     * @throws IOException
+     */
+    private static List<Divergence> calculateDivergences(
+        Repository repository, List<RefPair> pairs) throws IOException {
+        List<Divergence> divergences = new ArrayList<>();
+        List<int[]> counts = JGitUtilities.calculateDivergences(repository,
+            pairs);
+        for(int i = 0; i < pairs.size(); i++) {
+            RefPair pair = pairs.get(i);
+            divergences.add(new Divergence(pair.getLocal().getName(),
+                pair.getRemote().getName(), counts.get(i)[0],
+                counts.get(i)[1]));
+        }
+        return divergences;
+    }
+
+    /**
+     * Gets the ahead and behind counts for every pair of local and remote
+     * branches. This reads the repository and does not change the snapshot.
+     * 
+     * @return
+     */
+    public String getDeepAnalysis() {
+        RepositoryPool pool = new RepositoryPool(1);
+        try {
+            return getDeepAnalysis(pool);
+        } finally {
+            pool.closeAll();
         }
     }
 
     /**
-     * Gets the status and branch tracking of the repository locations.
+     * Gets the ahead and behind counts for every pair of local and remote
+     * branches. This reads the repository and does not change the snapshot.
      * 
+     * @param pool The pool to get the Repository from.
+     * @return
      */
-    private String getCVSSummary() {
+    public String getDeepAnalysis(RepositoryPool pool) {
         StringBuilder sb = new StringBuilder();
-        Repository repository;
-        Status status;
-        Git git = null;
-        List<Ref> call, call1;
-        String url;
+        Repository repository = null;
+        sb.append(getFilePath() + LS);
+        try {
+            try {
+                repository = pool.acquire(file);
+            } catch(RepositoryNotFoundException ex) {
+                sb.append("Repository not found" + LS);
+                return sb.toString();
+            }
+            Git git = Git.wrap(repository);
+            List<Ref> call = git.branchList().call();
+            List<Ref> call1 = git.branchList().setListMode(ListMode.REMOTE)
+                .call();
+            List<Divergence> divergences = calculateDivergences(repository,
+                getBranchPairs(repository.getConfig(), call, call1,
+                    DivergenceMode.DEEP));
+            sb.append("Tracking (all branch pairs)" + LS);
+            appendDivergences(sb, call.size(), call1.size(), divergences);
+        } catch(Exception ex) {
+            sb.append("Error getting deep analysis: " + ex + LS);
+        } finally {
+            pool.release(repository);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the ahead and behind counts for the given divergences.
+     * 
+     * @param sb
+     * @param nLocal The number of local branches.
+     * @param nRemote The number of remote branches.
+     * @param divergences
+     */
+    private static void appendDivergences(StringBuilder sb, int nLocal,
+        int nRemote, List<Divergence> divergences) {
+        String tab2 = "  ";
+        String tab4 = "    ";
+        if(nLocal == 0) {
+            sb.append(tab2 + "No local branches" + LS);
+        } else if(nRemote == 0) {
+            sb.append(tab2 + "No remote branches" + LS);
+        } else {
+            for(Divergence divergence : divergences) {
+                sb.append(tab2 + "For " + divergence.getLocalBranch() + " and "
+                    + divergence.getRemoteBranch() + LS);
+                sb.append(tab4 + "Commits ahead : " + divergence.getAhead()
+                    + " Commits behind : " + divergence.getBehind() + LS);
+            }
+        }
+    }
+
+    /**
+     * Discards the snapshot so the state will be recalculated on the next
+     * refresh.
+     */
+    public synchronized void invalidate() {
+        snapshot = null;
+        fingerprint = null;
+    }
+
+    /**
+     * Sets the state flags saved in a previous session, so they can be shown
+     * until the state is calculated. The snapshot has only the flags, and it
+     * is never used to skip a calculation.
+     *
+     * @param flags The RepositoryStateSnapshot flags.
+     */
+    public synchronized void restoreState(int flags) {
+        snapshot = new RepositoryStateSnapshot(
+            flags | RepositoryStateSnapshot.RESTORED, null);
+        fingerprint = null;
+        snapshotMode = null;
+    }
+
+    /**
+     * Gets the current snapshot, calculating it first if it has not been
+     * calculated yet or was restored from a previous session.
+     *
+     * @param pool The pool to get the Repository from.
+     * @return
+     */
+    private RepositoryStateSnapshot getCalculatedSnapshot(
+        RepositoryPool pool) {
+        RepositoryStateSnapshot cur = snapshot;
+        if(cur == null || cur.has(RepositoryStateSnapshot.RESTORED)) {
+            calculateState(pool, D_DIVERGENCE_MODE);
+            cur = snapshot;
+        }
+        return cur;
+    }
+
+    /**
+     * Gets the full status for the given snapshot. If the snapshot does not
+     * have it, it is calculated with the StatusCommand and kept in the
+     * snapshot if it is still the current one.
+     * 
+     * @param cur
+     * @param pool The pool to get the Repository from.
+     * @return
+     * @throws Exception
+     */
+    private Status getFullStatus(RepositoryStateSnapshot cur,
+        RepositoryPool pool) throws Exception {
+        Status status = cur.getStatus();
+        if(status != null) {
+            return status;
+        }
+        GitLocation location = GitLocation.resolve(file);
+        if(location == null) {
+            throw new RepositoryNotFoundException(file);
+        }
+        Repository repository = null;
+        try {
+            repository = pool.acquire(location);
+            status = JGitUtilities.getStatus(repository, location);
+        } finally {
+            pool.release(repository);
+        }
+        synchronized(this) {
+            if(snapshot == cur) {
+                snapshot = cur.withStatus(status);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Gets the status and branch tracking of the repository locations from
+     * the snapshot.
+     * 
+     * @param pool The pool to get the Repository from.
+     */
+    private String getCVSSummary(RepositoryPool pool) {
+        StringBuilder sb = new StringBuilder();
+        RepositoryStateSnapshot cur = getCalculatedSnapshot(pool);
 
         // Name
         sb.append(getFilePath() + COMMA);
-        try {
+        if(cur.has(RepositoryStateSnapshot.NOT_FOUND)) {
+            String msg = "Repository not found";
+            sb.append(LS + msg);
+            return sb.toString();
+        }
+        if(cur.getError() != null) {
+            String msg = "Error getting CSV values: " + cur.getError();
+            sb.append(LS + msg);
+            return sb.toString();
+        }
+
+        // Status
+        if(cur.has(RepositoryStateSnapshot.BARE)) {
+            // There are no files, so leave the counts empty
+            sb.append(true + COMMA);
+            for(int i = 0; i < 10; i++) {
+                sb.append(COMMA);
+            }
+        } else {
+            Status status;
             try {
-                git = Git.open(file);
-            } catch(RepositoryNotFoundException ex) {
-                String msg = "Repository not found";
+                status = getFullStatus(cur, pool);
+            } catch(Exception ex) {
+                String msg = "Error getting CSV values: " + ex;
                 sb.append(LS + msg);
                 return sb.toString();
             }
-            repository = git.getRepository();
-
-            // Status
-            status = git.status().call();
             sb.append(status.isClean() + COMMA);
             sb.append(status.getAdded().size() + COMMA);
             sb.append(status.getChanged().size() + COMMA);
@@ -164,214 +491,176 @@ public class RepositoryModel implements IConstants
             sb.append(status.getRemoved().size() + COMMA);
             sb.append(status.getUntracked().size() + COMMA);
             sb.append(status.getUntrackedFolders().size() + COMMA);
+        }
 
-            // Branches
-            sb.append("\"");
-            call = git.branchList().setListMode(ListMode.ALL).call();
-            boolean first = true;
-            for(Ref ref : call) {
-                sb.append((first ? "" : ITEM_DELIMITER) + ref.getName());
-                first = false;
+        // Branches
+        sb.append("\"");
+        boolean first = true;
+        for(String name : getAllBranches(cur)) {
+            sb.append((first ? "" : ITEM_DELIMITER) + name);
+            first = false;
+        }
+        sb.append("\"" + COMMA);
+
+        // Remotes
+        sb.append("\"");
+        first = true;
+        for(Map.Entry<String, String> entry : cur.getRemotes().entrySet()) {
+            if(entry.getValue() == null) continue;
+            if(!first) {
+                sb.append(ITEM_DELIMITER);
             }
-            sb.append("\"" + COMMA);
+            sb.append(entry.getKey() + " " + entry.getValue());
+            first = false;
+        }
+        sb.append("\"" + COMMA);
+
+        // Tracking branch
+        String trackingBranch = cur.getTrackingBranch();
+        if(trackingBranch == null) {
+            sb.append("None" + COMMA);
+        } else {
+            sb.append(trackingBranch + COMMA);
+        }
 
-            // Remotes
-            sb.append("\"");
-            Config config = repository.getConfig();
-            Set<String> remotes = config.getSubsections("remote");
-            first = true;
-            for(String remoteName : remotes) {
-                url = config.getString("remote", remoteName, "url");
-                if(url == null) continue;
-                if(!first) {
-                    sb.append(ITEM_DELIMITER);
-                }
-                sb.append(remoteName + " " + url);
+        // Remote tracking
+        StringBuilder remote = new StringBuilder();
+        StringBuilder ahead = new StringBuilder();
+        StringBuilder behind = new StringBuilder();
+        first = true;
+        for(Divergence divergence : cur.getDivergences()) {
+            if(first) {
                 first = false;
-            }
-            sb.append("\"" + COMMA);
-
-            // Tracking branch
-            String trackingBranch = new BranchConfig(repository.getConfig(),
-                repository.getBranch()).getTrackingBranch();
-            if(trackingBranch == null) {
-                sb.append("None" + COMMA);
             } else {
-                sb.append(trackingBranch + COMMA);
-            }
-
-            // Remote tracking
-            String remote = "", ahead = "", behind = "";
-            List<Integer> counts;
-            call = git.branchList().call();
-            if(call.size() != 0) {
-                for(Ref refLocal : call) {
-                    call1 = git.branchList().setListMode(ListMode.REMOTE)
-                        .call();
-                    if(call1.size() == 0) {
-                        continue;
-                    }
-                    first = true;
-                    for(Ref refRemote : call1) {
-                        if(refRemote == null) continue;
-                        counts = JGitUtilities.calculateDivergence(repository,
-                            refLocal, refRemote);
-                        if(first) {
-                            first = false;
-                        } else {
-                            remote += ITEM_DELIMITER;
-                            ahead += ITEM_DELIMITER;
-                            behind += ITEM_DELIMITER;
-                        }
-                        remote += refLocal.getName() + " "
-                            + refRemote.getName();
-                        if(counts != null && counts.size() == 2) {
-                            ahead += counts.get(0);
-                            behind += counts.get(1);
-                        }
-                    }
-                }
+                remote.append(ITEM_DELIMITER);
+                ahead.append(ITEM_DELIMITER);
+                behind.append(ITEM_DELIMITER);
             }
-            sb.append("\"" + remote + "\"" + COMMA);
-            sb.append("\"" + ahead + "\"" + COMMA);
-            sb.append("\"" + behind + "\"" + COMMA);
-        } catch(Exception ex) {
-            String msg = "Error getting CSV values";
-            Utils.excMsg(msg, ex);
-            sb.append(LS + msg);
-            return sb.toString();
+            remote.append(divergence.getLocalBranch() + " "
+                + divergence.getRemoteBranch());
+            ahead.append(divergence.getAhead());
+            behind.append(divergence.getBehind());
         }
+        sb.append("\"" + remote + "\"" + COMMA);
+        sb.append("\"" + ahead + "\"" + COMMA);
+        sb.append("\"" + behind + "\"" + COMMA);
         sb.append(LS);
         return sb.toString();
     }
 
     /**
-     * Gets the status and branch tracking of the repository locations.
+     * Gets the status and branch tracking of the repository locations from
+     * the snapshot.
      * 
      * @param doStatus Show the status or not.
      * @param doBranchTracking Show the tracking or not.
      * @param doRemotes Show the remotes or not for full.
      * @param full For the status show the full status even if clean. Otherwise
      *            just show clean and tracking.
+     * @param pool The pool to get the Repository from.
      */
     private String getStatus(boolean doStatus, boolean doBranchTracking,
-        boolean doRemotes, boolean full) {
+        boolean doRemotes, boolean full, RepositoryPool pool) {
         String tab2 = "  ";
-        String tab4 = "    ";
         StringBuilder sb = new StringBuilder();
-        Repository repository;
-        Status status;
-        Git git = null;
-        List<Ref> call, call1;
+        RepositoryStateSnapshot cur = getCalculatedSnapshot(pool);
         boolean isClean;
         sb.append(getFilePath() + COMMA + LS);
-        try {
+        if(cur.has(RepositoryStateSnapshot.NOT_FOUND)) {
+            String msg = "Repository not found";
+            sb.append(msg + LS);
+            return sb.toString();
+        }
+        if(cur.getError() != null) {
+            String msg = "Error getting status: " + cur.getError();
+            sb.append(msg + LS);
+            return sb.toString();
+        }
+
+        // Status
+        if(doStatus && cur.has(RepositoryStateSnapshot.BARE)) {
+            // There are no files
+            sb.append("Bare repository" + LS);
+        } else if(doStatus && !full
+            && cur.has(RepositoryStateSnapshot.CLEAN)) {
+            // The file lists are not shown
+            sb.append("Clean: true" + LS);
+        } else if(doStatus) {
+            Status status;
             try {
-                git = Git.open(file);
-            } catch(RepositoryNotFoundException ex) {
-                String msg = "Repository not found";
+                status = getFullStatus(cur, pool);
+            } catch(Exception ex) {
+                String msg = "Error getting status: " + ex;
                 sb.append(msg + LS);
                 return sb.toString();
             }
-            repository = git.getRepository();
-
-            // Status
-            if(doStatus) {
-                status = git.status().call();
-                isClean = status.isClean();
-                sb.append("Clean: " + status.isClean() + LS);
-                if(full || !isClean) {
-                    sb.append("Added: " + status.getAdded() + LS);
-                    sb.append("Changed: " + status.getChanged() + LS);
-                    sb.append("Conflicting: " + status.getConflicting() + LS);
-                    sb.append("ConflictingStageState: "
-                        + status.getConflictingStageState() + LS);
-                    sb.append("IgnoredNotInIndex: "
-                        + status.getIgnoredNotInIndex() + LS);
-                    sb.append("Missing: " + status.getMissing() + LS);
-                    sb.append("Modified: " + status.getModified() + LS);
-                    sb.append("Removed: " + status.getRemoved() + LS);
-                    sb.append("Untracked: " + status.getUntracked() + LS);
-                    sb.append("UntrackedFolders: "
-                        + status.getUntrackedFolders() + LS);
-                }
+            isClean = status.isClean();
+            sb.append("Clean: " + status.isClean() + LS);
+            if(full || !isClean) {
+                sb.append("Added: " + status.getAdded() + LS);
+                sb.append("Changed: " + status.getChanged() + LS);
+                sb.append("Conflicting: " + status.getConflicting() + LS);
+                sb.append("ConflictingStageState: "
+                    + status.getConflictingStageState() + LS);
+                sb.append(
+                    "IgnoredNotInIndex: " + status.getIgnoredNotInIndex() + LS);
+                sb.append("Missing: " + status.getMissing() + LS);
+                sb.append("Modified: " + status.getModified() + LS);
+                sb.append("Removed: " + status.getRemoved() + LS);
+                sb.append("Untracked: " + status.getUntracked() + LS);
+                sb.append(
+                    "UntrackedFolders: " + status.getUntrackedFolders() + LS);
             }
+        }
 
-            // Branches
-            if(doBranchTracking && full) {
-                sb.append("Branches" + LS);
-                call = git.branchList().setListMode(ListMode.ALL).call();
-                for(Ref ref : call) {
-                    sb.append(tab2 + ref.getName() + LS);
-                }
+        // Branches
+        if(doBranchTracking && full) {
+            sb.append("Branches" + LS);
+            for(String name : getAllBranches(cur)) {
+                sb.append(tab2 + name + LS);
             }
+        }
 
-            // Remotes
-            if(doRemotes && full) {
-                sb.append("Remotes" + LS);
-                Config config = repository.getConfig();
-                Set<String> remotes = config.getSubsections("remote");
-                if(remotes.size() == 0) {
-                    sb.append(tab2 + "None" + LS);
-                }
-                for(String remoteName : remotes) {
-                    String url = config.getString("remote", remoteName, "url");
-                    sb.append(tab2 + remoteName + " (" + url + ")" + LS);
-                }
+        // Remotes
+        if(doRemotes && full) {
+            sb.append("Remotes" + LS);
+            Map<String, String> remotes = cur.getRemotes();
+            if(remotes.size() == 0) {
+                sb.append(tab2 + "None" + LS);
+            }
+            for(Map.Entry<String, String> entry : remotes.entrySet()) {
+                sb.append(tab2 + entry.getKey() + " (" + entry.getValue() + ")"
+                    + LS);
             }
+        }
 
-            // Complete branch tracking
-            if(doBranchTracking) {
-                sb.append("Tracking" + LS);
-                if(full) {
-                    // Tracking branch
-                    String trackingBranch = new BranchConfig(
-                        repository.getConfig(), repository.getBranch())
-                            .getTrackingBranch();
-                    sb.append(tab2 + "Tracking Branch: " + trackingBranch + LS);
-                }
-                // Loop over local branches
-                List<Integer> counts;
-                call = git.branchList().call();
-                if(call.size() == 0) {
-                    sb.append(tab2 + "No local branches" + LS);
-                } else {
-                    for(Ref refLocal : call) {
-                        call1 = git.branchList().setListMode(ListMode.REMOTE)
-                            .call();
-                        if(call1.size() == 0) {
-                            sb.append(tab2 + "No remote branches" + LS);
-                            continue;
-                        }
-                        for(Ref refRemote : call1) {
-                            counts = JGitUtilities.calculateDivergence(
-                                repository, refLocal, refRemote);
-                            sb.append(tab2 + "For " + refLocal.getName()
-                                + " and " + refRemote.getName() + LS);
-                            if(counts == null) {
-                                sb.append(tab4 + "Not found" + LS);
-                            } else if(counts.size() != 2) {
-                                sb.append(tab4 + "Wrong size : " + counts.size()
-                                    + LS);
-                            } else {
-                                sb.append(tab4 + "Commits ahead : "
-                                    + counts.get(0) + " Commits behind : "
-                                    + counts.get(1) + LS);
-                            }
-                        }
-                    }
-                }
+        // Complete branch tracking
+        if(doBranchTracking) {
+            sb.append("Tracking" + LS);
+            if(full) {
+                // Tracking branch
+                sb.append(tab2 + "Tracking Branch: " + cur.getTrackingBranch()
+                    + LS);
             }
-            sb.append(LS);
-        } catch(Exception ex) {
-            String msg = "Error getting status";
-            Utils.excMsg(msg, ex);
-            sb.append(msg + LS);
-            return sb.toString();
+            appendDivergences(sb, cur.getLocalBranches().size(),
+                cur.getRemoteBranches().size(), cur.getDivergences());
         }
+        sb.append(LS);
         return sb.toString();
     }
 
+    /**
+     * Gets the local followed by the remote branches in the snapshot.
+     * 
+     * @param cur
+     * @return
+     */
+    private static List<String> getAllBranches(RepositoryStateSnapshot cur) {
+        List<String> branches = new ArrayList<>(cur.getLocalBranches());
+        branches.addAll(cur.getRemoteBranches());
+        return branches;
+    }
+
     public static String sysInfo() {
         String info = "";
         String[] properties = {"user.dir", "java.version", "java.home",
@@ -402,9 +691,12 @@ public class RepositoryModel implements IConstants
      * @return
      */
     public String getInfo() {
-        String info = "";
-        info += getStatus(true, true, true, true);
-        return info;
+        RepositoryPool pool = new RepositoryPool(1);
+        try {
+            return getStatus(true, true, true, true, pool);
+        } finally {
+            pool.closeAll();
+        }
     }
 
     /**
@@ -413,9 +705,22 @@ public class RepositoryModel implements IConstants
      * @return
      */
     public String getCVSInfo() {
-        String info = "";
-        info += getCVSSummary();
-        return info;
+        RepositoryPool pool = new RepositoryPool(1);
+        try {
+            return getCVSInfo(pool);
+        } finally {
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Gets info about this repository in a CSV form.
+     * 
+     * @param pool The pool to get the Repository from.
+     * @return
+     */
+    public String getCVSInfo(RepositoryPool pool) {
+        return getCVSSummary(pool);
     }
 
     /**
@@ -427,6 +732,114 @@ public class RepositoryModel implements IConstants
         return CVS_HEADINGS;
     }
 
+    /**
+     * Gets the snapshot to export, with the full status, calculating them if
+     * they have not been calculated. The status is left out if it cannot be
+     * calculated. It may be called from any thread.
+     * 
+     * @param pool The pool to get the Repository from.
+     * @return
+     */
+    public RepositoryStateSnapshot getExportSnapshot(RepositoryPool pool) {
+        RepositoryStateSnapshot cur = getCalculatedSnapshot(pool);
+        if(cur.getError() != null
+            || cur.has(RepositoryStateSnapshot.NOT_FOUND)
+            || cur.has(RepositoryStateSnapshot.BARE)) {
+            return cur;
+        }
+        try {
+            return cur.withStatus(getFullStatus(cur, pool));
+        } catch(Exception ex) {
+            return cur;
+        }
+    }
+
+    /**
+     * Writes the given snapshot of this repository as a JSON object. The
+     * status is only included if the snapshot has it.
+     * 
+     * @param writer
+     * @param cur The snapshot, as from getExportSnapshot().
+     * @throws IOException
+     */
+    public void writeJSON(JsonWriter writer, RepositoryStateSnapshot cur)
+        throws IOException {
+        writer.beginObject();
+        writer.name("path").value(getFilePath());
+        writer.name("timestamp").value(cur.getTimestamp());
+        writer.name("clean").value(cur.has(RepositoryStateSnapshot.CLEAN));
+        writer.name("ahead").value(cur.has(RepositoryStateSnapshot.AHEAD));
+        writer.name("behind").value(cur.has(RepositoryStateSnapshot.BEHIND));
+        writer.name("nonTrackingAhead")
+            .value(cur.has(RepositoryStateSnapshot.NON_TRACKING_AHEAD));
+        writer.name("nonTrackingBehind")
+            .value(cur.has(RepositoryStateSnapshot.NON_TRACKING_BEHIND));
+        writer.name("notTracking")
+            .value(cur.has(RepositoryStateSnapshot.NOT_TRACKING));
+        writer.name("notFound")
+            .value(cur.has(RepositoryStateSnapshot.NOT_FOUND));
+        writer.name("noRemoteBranches")
+            .value(cur.has(RepositoryStateSnapshot.NO_REMOTE_BRANCHES));
+        writer.name("bare").value(cur.has(RepositoryStateSnapshot.BARE));
+        if(cur.getError() != null) {
+            writer.name("error").value(cur.getError());
+        }
+
+        // Status
+        Status status = cur.getStatus();
+        if(status != null) {
+            writer.name("status").beginObject();
+            writer.name("added").value(status.getAdded().size());
+            writer.name("changed").value(status.getChanged().size());
+            writer.name("conflicting").value(status.getConflicting().size());
+            writer.name("conflictingStageState")
+                .value(status.getConflictingStageState().size());
+            writer.name("ignored")
+                .value(status.getIgnoredNotInIndex().size());
+            writer.name("missing").value(status.getMissing().size());
+            writer.name("modified").value(status.getModified().size());
+            writer.name("removed").value(status.getRemoved().size());
+            writer.name("untracked").value(status.getUntracked().size());
+            writer.name("untrackedFolders")
+                .value(status.getUntrackedFolders().size());
+            writer.endObject();
+        }
+
+        // Branches
+        writer.name("trackingBranch").value(cur.getTrackingBranch());
+        writer.name("localBranches").beginArray();
+        for(String name : cur.getLocalBranches()) {
+            writer.value(name);
+        }
+        writer.endArray();
+        writer.name("remoteBranches").beginArray();
+        for(String name : cur.getRemoteBranches()) {
+            writer.value(name);
+        }
+        writer.endArray();
+
+        // Remotes
+        writer.name("remotes").beginObject();
+        for(Map.Entry<String, String> entry : cur.getRemotes().entrySet()) {
+            if(entry.getValue() == null) continue;
+            writer.name(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+
+        // Remote tracking
+        writer.name("divergences").beginArray();
+        for(Divergence divergence : cur.getDivergences()) {
+            writer.beginObject();
+            writer.name("localBranch").value(divergence.getLocalBranch());
+            writer.name("remoteBranch").value(divergence.getRemoteBranch());
+            writer.name("ahead").value(divergence.getAhead());
+            writer.name("behind").value(divergence.getBehind());
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
     /**
      * @return The value of fileName.
      */
@@ -434,60 +847,86 @@ public class RepositoryModel implements IConstants
         return file.getPath();
     }
 
+    /**
+     * @return The last calculated state or null if it has not been
+     *         calculated.
+     */
+    public RepositoryStateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns if the given flag is set in the snapshot.
+     *
+     * @param flag One of the RepositoryStateSnapshot flags.
+     * @return False if the state has not been calculated.
+     */
+    private boolean has(int flag) {
+        RepositoryStateSnapshot cur = snapshot;
+        return cur != null && cur.has(flag);
+    }
+
     /**
      * @return The value of isClean.
      */
     public boolean isClean() {
-        return isClean;
+        return has(RepositoryStateSnapshot.CLEAN);
     }
 
     /**
      * @return The value of isAhead.
      */
     public boolean isAhead() {
-        return isAhead;
+        return has(RepositoryStateSnapshot.AHEAD);
     }
 
     /**
      * @return The value of isBehind.
      */
     public boolean isBehind() {
-        return isBehind;
+        return has(RepositoryStateSnapshot.BEHIND);
     }
 
     /**
      * @return The value of isNotTracking.
      */
     public boolean isNotTracking() {
-        return isNotTracking;
+        return has(RepositoryStateSnapshot.NOT_TRACKING);
     }
 
     /**
      * @return The value of isNotFound.
      */
     public boolean isNotFound() {
-        return isNotFound;
+        return has(RepositoryStateSnapshot.NOT_FOUND);
+    }
+
+    /**
+     * @return The value of isBare.
+     */
+    public boolean isBare() {
+        return has(RepositoryStateSnapshot.BARE);
     }
 
     /**
      * @return The value of isNoRemoteBranches.
      */
     public boolean isNoRemoteBranches() {
-        return isNoRemoteBranches;
+        return has(RepositoryStateSnapshot.NO_REMOTE_BRANCHES);
     }
 
     /**
      * @return The value of isNonTrackingAhead.
      */
     public boolean isNonTrackingAhead() {
-        return isNonTrackingAhead;
+        return has(RepositoryStateSnapshot.NON_TRACKING_AHEAD);
     }
 
     /**
      * @return The value of isNonTrackingBehind.
      */
     public boolean isNonTrackingBehind() {
-        return isNonTrackingBehind;
+        return has(RepositoryStateSnapshot.NON_TRACKING_BEHIND);
     }
 
     /**
@@ -506,7 +945,7 @@ public class RepositoryModel implements IConstants
         // DEBUG
         System.out.println();
 
-        System.out.println(app.getStatus(true, true, true, true));
+        System.out.println(app.getInfo());
         System.out.println("All Done");
     }
 
@@ -0,0 +1,621 @@
+package net.kenevans.git.repositorymanager.model;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+
+import net.kenevans.git.repositorymanager.model.RefreshEngine.RefreshListener;
+import net.kenevans.git.repositorymanager.utils.GitLocation;
+
+/**
+ * RepositoryMonitor watches repositories for changes with a WatchService and
+ * recalculates only the ones that change. For each repository it watches the
+ * git directory, the common directory for linked working trees, and the
+ * directories under refs/heads and refs/remotes, and optionally the top of
+ * the working tree. Events for a repository are collected until there have
+ * been none for the delay, then it is recalculated with the RefreshEngine.<br>
+ * <br>
+ * Repositories that would go over the maximum number of watches, or that
+ * cannot be watched, are polled instead, using their RepositoryFingerprint
+ * to skip the ones that have not changed. If the WatchService loses events,
+ * all the repositories are polled once. A poll is not started while the last
+ * one is still running.<br>
+ * <br>
+ * The watches are registered on the scheduler thread, so start() and
+ * update() return at once. update() only registers the repositories that
+ * were added and cancels the watches of the ones that were removed.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryMonitor implements IConstants
+{
+    private final RefreshEngine engine;
+    private final RefreshListener listener;
+    private boolean watchWorkTrees = D_MONITOR_WORK_TREES;
+    private long delayMs = D_MONITOR_DELAY_MS;
+    private int pollSec = D_MONITOR_POLL_SEC;
+    private int maxWatches = D_MAX_WATCHES;
+
+    private WatchService watchService;
+    private ScheduledExecutorService scheduler;
+    /** The repositories being monitored, watched or polled. */
+    private final Set<RepositoryModel> models = new LinkedHashSet<>();
+    /**
+     * The watched repositories by WatchKey. Linked working trees share the
+     * directories of their common directory, and a directory has only one
+     * WatchKey.
+     */
+    private final Map<WatchKey, Set<RepositoryModel>> keys = new HashMap<>();
+    /** The WatchKeys of each watched repository. */
+    private final Map<RepositoryModel, List<WatchKey>> modelKeys =
+        new HashMap<>();
+    /** The common directories of the watched repositories. */
+    private final Map<RepositoryModel, Path> gitDirs = new HashMap<>();
+    /** The repositories that are polled instead of watched. */
+    private final Set<RepositoryModel> polled = new LinkedHashSet<>();
+    /** The pending recalculations by repository. */
+    private final Map<RepositoryModel, ScheduledFuture<?>> pending = new HashMap<>();
+    /** The job for the last poll. */
+    private RefreshJob pollJob;
+    /** Whether the next poll is for all the repositories. */
+    private boolean pollAll;
+
+    /**
+     * RepositoryMonitor constructor.
+     *
+     * @param engine The engine to recalculate with.
+     * @param listener The listener to notify as repositories are
+     *            recalculated. It is called from the engine threads.
+     */
+    public RepositoryMonitor(RefreshEngine engine, RefreshListener listener) {
+        this.engine = engine;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts monitoring the given repositories, replacing any that are
+     * already being monitored. The settings take effect. The watches are
+     * registered in the background.
+     *
+     * @param models
+     * @throws IOException If the WatchService cannot be created.
+     */
+    public synchronized void start(List<RepositoryModel> models)
+        throws IOException {
+        stop();
+        watchService = FileSystems.getDefault().newWatchService();
+        scheduler = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                        "RepositoryMonitor-Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, pollSec, pollSec, TimeUnit.SECONDS);
+        Thread thread = new Thread(new Watcher(watchService),
+            "RepositoryMonitor-Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        update(models);
+    }
+
+    /**
+     * Changes the repositories being monitored to the given ones, starting
+     * monitoring if it has not been started. Only the repositories that were
+     * added are registered and only the watches of the ones that were
+     * removed are cancelled. This is done in the background.
+     *
+     * @param models
+     * @throws IOException If the WatchService cannot be created.
+     */
+    public synchronized void update(List<RepositoryModel> models)
+        throws IOException {
+        if(watchService == null) {
+            start(models);
+            return;
+        }
+        final WatchService service = watchService;
+        final List<RepositoryModel> list = new ArrayList<>(models);
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                setModels(service, list);
+            }
+        });
+    }
+
+    /**
+     * Unregisters the repositories that are not in the given list and
+     * registers the ones that are new. Called on the scheduler thread. The
+     * lock is not held while the directories to watch are found.
+     *
+     * @param service The WatchService when this was scheduled. Nothing is
+     *            done if monitoring has been stopped or started again.
+     * @param newModels
+     */
+    private void setModels(WatchService service,
+        List<RepositoryModel> newModels) {
+        List<RepositoryModel> added = new ArrayList<>();
+        boolean watchWorkTrees;
+        synchronized(this) {
+            if(watchService != service) {
+                return;
+            }
+            Set<RepositoryModel> newSet = new HashSet<>(newModels);
+            for(RepositoryModel model : new ArrayList<>(models)) {
+                if(!newSet.contains(model)) {
+                    unregister(model);
+                }
+            }
+            for(RepositoryModel model : newSet) {
+                if(!models.contains(model)) {
+                    added.add(model);
+                }
+            }
+            watchWorkTrees = this.watchWorkTrees;
+        }
+        for(RepositoryModel model : added) {
+            GitLocation location = GitLocation
+                .resolve(new File(model.getFilePath()));
+            List<Path> dirs = location != null
+                ? getWatchDirs(location, watchWorkTrees) : null;
+            synchronized(this) {
+                if(watchService != service) {
+                    return;
+                }
+                models.add(model);
+                if(dirs == null || !register(model, location, dirs)) {
+                    polled.add(model);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops monitoring a repository and cancels the watches that no other
+     * repository uses.
+     *
+     * @param model
+     */
+    private void unregister(RepositoryModel model) {
+        List<WatchKey> oldKeys = modelKeys.remove(model);
+        if(oldKeys != null) {
+            for(WatchKey key : oldKeys) {
+                Set<RepositoryModel> keyModels = keys.get(key);
+                if(keyModels == null) {
+                    continue;
+                }
+                keyModels.remove(model);
+                if(keyModels.isEmpty()) {
+                    keys.remove(key);
+                    key.cancel();
+                }
+            }
+        }
+        ScheduledFuture<?> future = pending.remove(model);
+        if(future != null) {
+            future.cancel(false);
+        }
+        gitDirs.remove(model);
+        polled.remove(model);
+        models.remove(model);
+    }
+
+    /**
+     * Stops monitoring. Recalculations that have already started will
+     * finish.
+     */
+    public synchronized void stop() {
+        if(watchService == null) {
+            return;
+        }
+        try {
+            // Also ends the Watcher
+            watchService.close();
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+        watchService = null;
+        scheduler.shutdownNow();
+        scheduler = null;
+        keys.clear();
+        modelKeys.clear();
+        gitDirs.clear();
+        polled.clear();
+        pending.clear();
+        pollAll = false;
+        models.clear();
+    }
+
+    /**
+     * Starts recalculating the polled repositories, or all of them if events
+     * were lost, unless the last poll is still running. In that case they
+     * are polled on a later tick.
+     */
+    private synchronized void poll() {
+        if(pollJob != null && !pollJob.isDone()) {
+            return;
+        }
+        List<RepositoryModel> list = new ArrayList<>(
+            pollAll ? models : polled);
+        pollAll = false;
+        if(list.size() > 0) {
+            pollJob = engine.start(list, true, listener);
+        }
+    }
+
+    /**
+     * @return If monitoring has been started and not stopped.
+     */
+    public synchronized boolean isRunning() {
+        return watchService != null;
+    }
+
+    /**
+     * Gets the directories to watch for a repository. It looks in the file
+     * system, so it is called without the lock.
+     *
+     * @param location
+     * @param watchWorkTrees Whether to include the top of the working tree.
+     * @return The directories, or null if they cannot be found.
+     */
+    private static List<Path> getWatchDirs(GitLocation location,
+        boolean watchWorkTrees) {
+        Path gitPath = location.getGitDir().toPath();
+        Path commonPath = location.getCommonDir().toPath();
+        List<Path> dirs = new ArrayList<>();
+        dirs.add(gitPath);
+        if(!commonPath.equals(gitPath)) {
+            dirs.add(commonPath);
+        }
+        dirs.add(commonPath.resolve(Constants.R_REFS));
+        try {
+            addTree(dirs, commonPath.resolve(Constants.R_HEADS));
+            addTree(dirs, commonPath.resolve(Constants.R_REMOTES));
+        } catch(IOException ex) {
+            return null;
+        }
+        if(watchWorkTrees && location.getWorkTree() != null) {
+            dirs.add(location.getWorkTree().toPath());
+        }
+        List<Path> existing = new ArrayList<>(dirs.size());
+        for(Path dir : dirs) {
+            if(Files.isDirectory(dir)) {
+                existing.add(dir);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Registers the watches for a repository if they fit in the maximum.
+     *
+     * @param model
+     * @param location
+     * @param dirs The directories to watch from getWatchDirs().
+     * @return False if the repository could not be watched.
+     */
+    private boolean register(RepositoryModel model, GitLocation location,
+        List<Path> dirs) {
+        if(keys.size() + dirs.size() > maxWatches) {
+            return false;
+        }
+        List<WatchKey> newKeys = new ArrayList<>();
+        try {
+            for(Path dir : dirs) {
+                newKeys.add(watch(dir));
+            }
+        } catch(IOException ex) {
+            // Probably the limit for the system, so poll instead
+            for(WatchKey key : newKeys) {
+                if(!keys.containsKey(key)) {
+                    key.cancel();
+                }
+            }
+            return false;
+        }
+        for(WatchKey key : newKeys) {
+            addKey(key, model);
+        }
+        gitDirs.put(model, location.getCommonDir().toPath());
+        return true;
+    }
+
+    /**
+     * Adds the given directory and the directories under it to the list.
+     *
+     * @param dirs
+     * @param dir
+     * @throws IOException
+     */
+    private static void addTree(final List<Path> dirs, Path dir)
+        throws IOException {
+        if(!Files.isDirectory(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,
+                BasicFileAttributes attrs) {
+                dirs.add(path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Registers one directory with the WatchService.
+     *
+     * @param dir
+     * @return
+     * @throws IOException
+     */
+    private WatchKey watch(Path dir) throws IOException {
+        return dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE,
+            ENTRY_MODIFY);
+    }
+
+    /**
+     * Adds a repository for a WatchKey.
+     *
+     * @param key
+     * @param model
+     */
+    private void addKey(WatchKey key, RepositoryModel model) {
+        Set<RepositoryModel> keyModels = keys.get(key);
+        if(keyModels == null) {
+            keyModels = new LinkedHashSet<>();
+            keys.put(key, keyModels);
+        }
+        if(keyModels.add(model)) {
+            List<WatchKey> keyList = modelKeys.get(model);
+            if(keyList == null) {
+                keyList = new ArrayList<>();
+                modelKeys.put(model, keyList);
+            }
+            keyList.add(key);
+        }
+    }
+
+    /**
+     * Determines if any directory is watched for a repository.
+     *
+     * @param model
+     * @return
+     */
+    private boolean isWatched(RepositoryModel model) {
+        List<WatchKey> keyList = modelKeys.get(model);
+        return keyList != null && !keyList.isEmpty();
+    }
+
+    /**
+     * Handles the events for a WatchKey from the Watcher.
+     *
+     * @param key
+     * @param events
+     */
+    private synchronized void handleEvents(WatchKey key,
+        List<WatchEvent<?>> events) {
+        if(scheduler == null) {
+            return;
+        }
+        Set<RepositoryModel> keyModels = keys.get(key);
+        List<RepositoryModel> changedModels = keyModels == null
+            ? Collections.<RepositoryModel> emptyList()
+            : new ArrayList<>(keyModels);
+        for(WatchEvent<?> event : events) {
+            if(event.kind() == OVERFLOW) {
+                // Events were lost, so check all of them
+                pollAll = true;
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                });
+                continue;
+            }
+            if(event.kind() != ENTRY_CREATE) {
+                continue;
+            }
+            // Watch new directories under refs, such as for a new remote
+            Path dir = ((Path)key.watchable())
+                .resolve((Path)event.context());
+            for(RepositoryModel model : changedModels) {
+                Path refs = gitDirs.get(model).resolve(Constants.R_REFS);
+                if(dir.startsWith(refs) && Files.isDirectory(dir)
+                    && keys.size() < maxWatches) {
+                    try {
+                        addKey(watch(dir), model);
+                    } catch(IOException ex) {
+                        polled.add(model);
+                    }
+                }
+            }
+        }
+        for(RepositoryModel model : changedModels) {
+            changed(model);
+        }
+        if(!key.reset()) {
+            // The directory is gone
+            keys.remove(key);
+            for(RepositoryModel model : changedModels) {
+                List<WatchKey> keyList = modelKeys.get(model);
+                if(keyList != null) {
+                    keyList.remove(key);
+                }
+                if(!isWatched(model)) {
+                    polled.add(model);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a repository to be recalculated after the delay, replacing
+     * any recalculation that is already scheduled for it.
+     *
+     * @param model
+     */
+    private void changed(final RepositoryModel model) {
+        ScheduledFuture<?> future = pending.get(model);
+        if(future != null) {
+            future.cancel(false);
+        }
+        pending.put(model, scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(RepositoryMonitor.this) {
+                    pending.remove(model);
+                }
+                engine.start(Collections.singletonList(model), false,
+                    listener);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return The number of directories being watched.
+     */
+    public synchronized int getWatchCount() {
+        return keys.size();
+    }
+
+    /**
+     * @return The number of repositories being polled instead of watched.
+     */
+    public synchronized int getPolledCount() {
+        return polled.size();
+    }
+
+    /**
+     * @return The value of watchWorkTrees.
+     */
+    public synchronized boolean isWatchWorkTrees() {
+        return watchWorkTrees;
+    }
+
+    /**
+     * Sets whether to also watch the top of the working trees. Takes effect
+     * the next time monitoring is started.
+     *
+     * @param watchWorkTrees The new value for watchWorkTrees.
+     */
+    public synchronized void setWatchWorkTrees(boolean watchWorkTrees) {
+        this.watchWorkTrees = watchWorkTrees;
+    }
+
+    /**
+     * @return The value of delayMs.
+     */
+    public synchronized long getDelayMs() {
+        return delayMs;
+    }
+
+    /**
+     * Sets how long in ms to wait after the last event for a repository
+     * before recalculating it.
+     *
+     * @param delayMs The new value for delayMs.
+     */
+    public synchronized void setDelayMs(long delayMs) {
+        this.delayMs = Math.max(0, delayMs);
+    }
+
+    /**
+     * @return The value of pollSec.
+     */
+    public synchronized int getPollSec() {
+        return pollSec;
+    }
+
+    /**
+     * Sets the interval in seconds for polling repositories that are not
+     * watched. Takes effect the next time monitoring is started.
+     *
+     * @param pollSec The new value for pollSec.
+     */
+    public synchronized void setPollSec(int pollSec) {
+        this.pollSec = Math.max(1, pollSec);
+    }
+
+    /**
+     * @return The value of maxWatches.
+     */
+    public synchronized int getMaxWatches() {
+        return maxWatches;
+    }
+
+    /**
+     * Sets the maximum number of directories to watch. Takes effect the next
+     * time monitoring is started.
+     *
+     * @param maxWatches The new value for maxWatches.
+     */
+    public synchronized void setMaxWatches(int maxWatches) {
+        this.maxWatches = Math.max(0, maxWatches);
+    }
+
+    /**
+     * Watcher takes the events from the WatchService until it is closed.
+     */
+    private class Watcher implements Runnable
+    {
+        private final WatchService service;
+
+        private Watcher(WatchService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                WatchKey key;
+                try {
+                    key = service.take();
+                } catch(InterruptedException | ClosedWatchServiceException ex) {
+                    return;
+                }
+                handleEvents(key, key.pollEvents());
+            }
+        }
+    }
+
+}
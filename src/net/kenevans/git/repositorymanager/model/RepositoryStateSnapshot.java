@@ -0,0 +1,251 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Status;
+
+/**
+ * RepositoryStateSnapshot is an immutable snapshot of the state of a
+ * repository at the time it was calculated. It is replaced as a whole when
+ * the state is recalculated, so readers never see a partial state. It holds
+ * everything needed for the summary, the details, and the list, so none of
+ * these need to open the repository. The full status is optional, since it is
+ * only needed for the info text and the CSV export.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public final class RepositoryStateSnapshot
+{
+    /** Flag indicating there are no changes in the working tree. */
+    public static final int CLEAN = 1 << 0;
+    /** Flag indicating the current branch is ahead of its tracking branch. */
+    public static final int AHEAD = 1 << 1;
+    /** Flag indicating the current branch is behind its tracking branch. */
+    public static final int BEHIND = 1 << 2;
+    /** Flag indicating a local branch is ahead of a non-tracking branch. */
+    public static final int NON_TRACKING_AHEAD = 1 << 3;
+    /** Flag indicating a local branch is behind a non-tracking branch. */
+    public static final int NON_TRACKING_BEHIND = 1 << 4;
+    /** Flag indicating the tracking information could not be determined. */
+    public static final int NOT_TRACKING = 1 << 5;
+    /** Flag indicating the repository was not found. */
+    public static final int NOT_FOUND = 1 << 6;
+    /** Flag indicating the repository has no remote branches. */
+    public static final int NO_REMOTE_BRANCHES = 1 << 7;
+    /** Flag indicating the repository is bare and has no working tree. */
+    public static final int BARE = 1 << 8;
+    /**
+     * Flag indicating the flags were restored from the RepositoryIndex and
+     * have not been calculated in this session.
+     */
+    public static final int RESTORED = 1 << 9;
+
+    private final int flags;
+    private final long timestamp;
+    private final Status status;
+    private final String trackingBranch;
+    private final List<String> localBranches;
+    private final List<String> remoteBranches;
+    private final Map<String, String> remotes;
+    private final List<Divergence> divergences;
+    private final String error;
+
+    /**
+     * RepositoryStateSnapshot constructor for when only the flags are known,
+     * such as when the repository is not found.
+     *
+     * @param flags The state flags.
+     * @param error The error message or null if there was no error.
+     */
+    public RepositoryStateSnapshot(int flags, String error) {
+        this(flags, null, null, Collections.<String> emptyList(),
+            Collections.<String> emptyList(),
+            Collections.<String, String> emptyMap(),
+            Collections.<Divergence> emptyList(), error);
+    }
+
+    /**
+     * RepositoryStateSnapshot constructor. The timestamp is set to now. The
+     * collections are wrapped as unmodifiable and must not be changed by the
+     * caller afterward.
+     *
+     * @param flags The state flags.
+     * @param status The status of the working tree or null if it was not
+     *            calculated.
+     * @param trackingBranch The tracking branch of the current branch or null.
+     * @param localBranches The names of the local branches.
+     * @param remoteBranches The names of the remote branches.
+     * @param remotes Map of remote names to URLs.
+     * @param divergences The ahead and behind counts for the branch pairs.
+     * @param error The error message or null if there was no error.
+     */
+    public RepositoryStateSnapshot(int flags, Status status,
+        String trackingBranch, List<String> localBranches,
+        List<String> remoteBranches, Map<String, String> remotes,
+        List<Divergence> divergences, String error) {
+        this.flags = flags;
+        this.timestamp = System.currentTimeMillis();
+        this.status = status;
+        this.trackingBranch = trackingBranch;
+        this.localBranches = Collections.unmodifiableList(localBranches);
+        this.remoteBranches = Collections.unmodifiableList(remoteBranches);
+        this.remotes = Collections.unmodifiableMap(remotes);
+        this.divergences = Collections.unmodifiableList(divergences);
+        this.error = error;
+    }
+
+    /**
+     * RepositoryStateSnapshot constructor for a copy of the given snapshot
+     * with a status.
+     *
+     * @param snapshot
+     * @param status
+     */
+    private RepositoryStateSnapshot(RepositoryStateSnapshot snapshot,
+        Status status) {
+        this.flags = snapshot.flags;
+        this.timestamp = snapshot.timestamp;
+        this.status = status;
+        this.trackingBranch = snapshot.trackingBranch;
+        this.localBranches = snapshot.localBranches;
+        this.remoteBranches = snapshot.remoteBranches;
+        this.remotes = snapshot.remotes;
+        this.divergences = snapshot.divergences;
+        this.error = snapshot.error;
+    }
+
+    /**
+     * Gets a copy of this snapshot with the given status. The timestamp is
+     * not changed.
+     *
+     * @param status
+     * @return
+     */
+    public RepositoryStateSnapshot withStatus(Status status) {
+        return new RepositoryStateSnapshot(this, status);
+    }
+
+    /**
+     * Returns if the given flag is set.
+     *
+     * @param flag
+     * @return
+     */
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * @return The value of flags.
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return The time the snapshot was made in ms.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The status or null if it was not calculated.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The value of trackingBranch.
+     */
+    public String getTrackingBranch() {
+        return trackingBranch;
+    }
+
+    /**
+     * @return The value of localBranches.
+     */
+    public List<String> getLocalBranches() {
+        return localBranches;
+    }
+
+    /**
+     * @return The value of remoteBranches.
+     */
+    public List<String> getRemoteBranches() {
+        return remoteBranches;
+    }
+
+    /**
+     * @return The remote names mapped to their URLs.
+     */
+    public Map<String, String> getRemotes() {
+        return remotes;
+    }
+
+    /**
+     * @return The value of divergences.
+     */
+    public List<Divergence> getDivergences() {
+        return divergences;
+    }
+
+    /**
+     * @return The error message or null if there was no error.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Divergence is the number of commits a local branch is ahead of and
+     * behind a remote branch.
+     */
+    public static final class Divergence
+    {
+        private final String localBranch;
+        private final String remoteBranch;
+        private final int ahead;
+        private final int behind;
+
+        public Divergence(String localBranch, String remoteBranch, int ahead,
+            int behind) {
+            this.localBranch = localBranch;
+            this.remoteBranch = remoteBranch;
+            this.ahead = ahead;
+            this.behind = behind;
+        }
+
+        /**
+         * @return The value of localBranch.
+         */
+        public String getLocalBranch() {
+            return localBranch;
+        }
+
+        /**
+         * @return The value of remoteBranch.
+         */
+        public String getRemoteBranch() {
+            return remoteBranch;
+        }
+
+        /**
+         * @return The number of commits the local branch is ahead.
+         */
+        public int getAhead() {
+            return ahead;
+        }
+
+        /**
+         * @return The number of commits the local branch is behind.
+         */
+        public int getBehind() {
+            return behind;
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package net.kenevans.git.repositorymanager.model;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * StateCounts keeps the number of repositories in each state for the
+ * summary. It remembers the flags it counted for each repository, so when
+ * one changes only its own counts are redone, rather than going through all
+ * the repositories again. A repository whose state has not been calculated
+ * yet is counted as pending and in no other state. It is not thread safe.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class StateCounts
+{
+    /** The flags for a repository whose state has not been calculated. */
+    private static final int PENDING = -1;
+
+    /** The flags counted for each repository. */
+    private final Map<RepositoryModel, Integer> counted = new IdentityHashMap<>();
+    private int pending;
+    private int dirty;
+    private int ahead;
+    private int behind;
+    private int nonTrackingAhead;
+    private int nonTrackingBehind;
+    private int notTracking;
+    private int notFound;
+    private int noRemoteBranches;
+
+    /**
+     * Removes all the repositories.
+     */
+    public void clear() {
+        counted.clear();
+        pending = dirty = ahead = behind = 0;
+        nonTrackingAhead = nonTrackingBehind = 0;
+        notTracking = notFound = noRemoteBranches = 0;
+    }
+
+    /**
+     * Counts a repository with its current state, replacing what was counted
+     * for it before.
+     *
+     * @param model
+     */
+    public void add(RepositoryModel model) {
+        Integer oldFlags = counted.get(model);
+        if(oldFlags != null) {
+            count(oldFlags, -1);
+        }
+        int flags = getFlags(model);
+        counted.put(model, flags);
+        count(flags, 1);
+    }
+
+    /**
+     * Counts the current state of a repository that has already been added.
+     * Repositories that have not been added are ignored.
+     *
+     * @param model
+     */
+    public void update(RepositoryModel model) {
+        if(counted.containsKey(model)) {
+            add(model);
+        }
+    }
+
+    /**
+     * Gets the flags of the current state of the repository.
+     *
+     * @param model
+     * @return The flags or PENDING if the state has not been calculated.
+     */
+    private static int getFlags(RepositoryModel model) {
+        RepositoryStateSnapshot snapshot = model.getSnapshot();
+        return snapshot != null ? snapshot.getFlags() : PENDING;
+    }
+
+    /**
+     * Adds the given amount to the count for each state in the flags.
+     *
+     * @param flags
+     * @param amount 1 to add or -1 to remove.
+     */
+    private void count(int flags, int amount) {
+        if(flags == PENDING) {
+            pending += amount;
+            return;
+        }
+        if((flags & RepositoryStateSnapshot.CLEAN) == 0) {
+            dirty += amount;
+        }
+        if((flags & RepositoryStateSnapshot.AHEAD) != 0) {
+            ahead += amount;
+        }
+        if((flags & RepositoryStateSnapshot.BEHIND) != 0) {
+            behind += amount;
+        }
+        if((flags & RepositoryStateSnapshot.NON_TRACKING_AHEAD) != 0) {
+            nonTrackingAhead += amount;
+        }
+        if((flags & RepositoryStateSnapshot.NON_TRACKING_BEHIND) != 0) {
+            nonTrackingBehind += amount;
+        }
+        if((flags & RepositoryStateSnapshot.NOT_TRACKING) != 0) {
+            notTracking += amount;
+        }
+        if((flags & RepositoryStateSnapshot.NOT_FOUND) != 0) {
+            notFound += amount;
+        }
+        if((flags & RepositoryStateSnapshot.NO_REMOTE_BRANCHES) != 0) {
+            noRemoteBranches += amount;
+        }
+    }
+
+    /**
+     * @return The number of repositories.
+     */
+    public int getTotal() {
+        return counted.size();
+    }
+
+    /**
+     * @return The number of repositories whose state has not been
+     *         calculated.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return The number of repositories that are not clean.
+     */
+    public int getDirty() {
+        return dirty;
+    }
+
+    /**
+     * @return The number of repositories that are ahead.
+     */
+    public int getAhead() {
+        return ahead;
+    }
+
+    /**
+     * @return The number of repositories that are behind.
+     */
+    public int getBehind() {
+        return behind;
+    }
+
+    /**
+     * @return The number of repositories that are ahead of a non-tracking
+     *         branch.
+     */
+    public int getNonTrackingAhead() {
+        return nonTrackingAhead;
+    }
+
+    /**
+     * @return The number of repositories that are behind a non-tracking
+     *         branch.
+     */
+    public int getNonTrackingBehind() {
+        return nonTrackingBehind;
+    }
+
+    /**
+     * @return The number of repositories that are not tracking.
+     */
+    public int getNotTracking() {
+        return notTracking;
+    }
+
+    /**
+     * @return The number of repositories that were not found.
+     */
+    public int getNotFound() {
+        return notFound;
+    }
+
+    /**
+     * @return The number of repositories with no remote branches.
+     */
+    public int getNoRemoteBranches() {
+        return noRemoteBranches;
+    }
+
+}
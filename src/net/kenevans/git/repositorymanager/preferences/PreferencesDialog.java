@@ -8,6 +8,8 @@ import java.io.File;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -15,6 +17,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 
+import net.kenevans.git.repositorymanager.model.DivergenceMode;
 import net.kenevans.git.repositorymanager.model.IConstants;
 import net.kenevans.git.repositorymanager.ui.RepositoryManager;
 import net.kenevans.git.repositorymanager.utils.Utils;
@@ -41,6 +44,18 @@ public class PreferencesDialog extends JDialog implements IConstants
     private boolean ok = true;
 
     private JTextField gitExtensionsPathTxt;
+    private JTextField refreshThreadsTxt;
+    private JTextField maxOpenRepositoriesTxt;
+    private JTextField maxOpenPackFilesTxt;
+    private JTextField packMemoryTxt;
+    private JComboBox<DivergenceMode> divergenceModeCombo;
+    private JTextField divergenceCacheSizeTxt;
+    private JTextField discoveryDepthTxt;
+    private JCheckBox monitorCheck;
+    private JCheckBox monitorWorkTreesCheck;
+    private JTextField monitorDelayTxt;
+    private JTextField monitorPollTxt;
+    private JTextField maxWatchesTxt;
 
     /**
      * Constructor
@@ -134,6 +149,123 @@ public class PreferencesDialog extends JDialog implements IConstants
         gbc.gridx = 1;
         filePanel.add(button);
 
+        // Refresh Group ///////////////////////////////////////////////////
+        JPanel refreshGroup = new JPanel();
+        refreshGroup.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder("Refresh"),
+            BorderFactory.createEmptyBorder(2, 2, 2, 2)));
+        gridy++;
+        refreshGroup.setLayout(new GridBagLayout());
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = gridy;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 100;
+        contentPane.add(refreshGroup, gbc);
+
+        int refreshGridy = -1;
+        refreshThreadsTxt = addField(refreshGroup, gbcDefault, ++refreshGridy,
+            "Worker Threads:",
+            "The number of threads used to calculate repository states.");
+        maxOpenRepositoriesTxt = addField(refreshGroup, gbcDefault,
+            ++refreshGridy, "Max Open Repositories:",
+            "The number of repositories kept open for reuse.");
+        maxOpenPackFilesTxt = addField(refreshGroup, gbcDefault,
+            ++refreshGridy, "Max Open Pack Files:",
+            "The number of Git pack files kept open for all repositories.");
+        packMemoryTxt = addField(refreshGroup, gbcDefault, ++refreshGridy,
+            "Pack Memory (MB):",
+            "The memory used to cache Git pack file data for all repositories.");
+
+        // Divergence mode
+        refreshGridy++;
+        label = new JLabel("Compare Branches:");
+        label.setToolTipText("Which remote branches each local branch is "
+            + "compared with. Use Deep Analysis in the list menu to compare "
+            + "all pairs.");
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = refreshGridy;
+        refreshGroup.add(label, gbc);
+
+        divergenceModeCombo = new JComboBox<>(new DivergenceMode[] {
+            DivergenceMode.UPSTREAM, DivergenceMode.UPSTREAM_AND_SAME_NAME});
+        divergenceModeCombo.setToolTipText(label.getToolTipText());
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 1;
+        gbc.gridy = refreshGridy;
+        refreshGroup.add(divergenceModeCombo, gbc);
+
+        divergenceCacheSizeTxt = addField(refreshGroup, gbcDefault,
+            ++refreshGridy, "Divergence Cache Size:",
+            "The number of ahead and behind counts kept between sessions. "
+                + "0 to not keep any.");
+
+        // Discovery Group /////////////////////////////////////////////////
+        JPanel discoveryGroup = new JPanel();
+        discoveryGroup.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder("Discovery"),
+            BorderFactory.createEmptyBorder(2, 2, 2, 2)));
+        gridy++;
+        discoveryGroup.setLayout(new GridBagLayout());
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = gridy;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 100;
+        contentPane.add(discoveryGroup, gbc);
+
+        int discoveryGridy = -1;
+        discoveryDepthTxt = addField(discoveryGroup, gbcDefault,
+            ++discoveryGridy, "Search Depth:",
+            "The number of levels below each parent directory to look for "
+                + "repositories. 1 looks only in the parent directory.");
+
+        // Monitor Group ///////////////////////////////////////////////////
+        JPanel monitorGroup = new JPanel();
+        monitorGroup.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createTitledBorder("Monitor"),
+            BorderFactory.createEmptyBorder(2, 2, 2, 2)));
+        gridy++;
+        monitorGroup.setLayout(new GridBagLayout());
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = gridy;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 100;
+        contentPane.add(monitorGroup, gbc);
+
+        int monitorGridy = -1;
+        monitorCheck = new JCheckBox("Monitor Repositories");
+        monitorCheck.setToolTipText("Watch the repositories for changes and "
+            + "recalculate the ones that change.");
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = ++monitorGridy;
+        gbc.gridwidth = 2;
+        gbc.anchor = GridBagConstraints.WEST;
+        monitorGroup.add(monitorCheck, gbc);
+
+        monitorWorkTreesCheck = new JCheckBox("Watch Working Trees");
+        monitorWorkTreesCheck.setToolTipText("Also watch the top directory "
+            + "of each working tree. Uses more watches.");
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = ++monitorGridy;
+        gbc.gridwidth = 2;
+        gbc.anchor = GridBagConstraints.WEST;
+        monitorGroup.add(monitorWorkTreesCheck, gbc);
+
+        monitorDelayTxt = addField(monitorGroup, gbcDefault, ++monitorGridy,
+            "Delay (ms):", "How long to wait after the last change to a "
+                + "repository before recalculating it.");
+        monitorPollTxt = addField(monitorGroup, gbcDefault, ++monitorGridy,
+            "Poll Interval (s):", "How often to check repositories that "
+                + "cannot be watched.");
+        maxWatchesTxt = addField(monitorGroup, gbcDefault, ++monitorGridy,
+            "Max Watches:", "The number of directories to watch. Repositories "
+                + "beyond this are polled.");
+
         // Button panel /////////////////////////////////////////////////////
         gridy++;
         JPanel buttonPanel = new JPanel();
@@ -223,6 +355,34 @@ public class PreferencesDialog extends JDialog implements IConstants
         pack();
     }
 
+    /**
+     * Adds a label and a short text field as a row in the given group.
+     * 
+     * @param group
+     * @param gbcDefault
+     * @param gridy
+     * @param text The label text.
+     * @param toolTip
+     * @return The text field.
+     */
+    private JTextField addField(JPanel group, GridBagConstraints gbcDefault,
+        int gridy, String text, String toolTip) {
+        JLabel label = new JLabel(text);
+        label.setToolTipText(toolTip);
+        GridBagConstraints gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 0;
+        gbc.gridy = gridy;
+        group.add(label, gbc);
+
+        JTextField textField = new JTextField(5);
+        textField.setToolTipText(toolTip);
+        gbc = (GridBagConstraints)gbcDefault.clone();
+        gbc.gridx = 1;
+        gbc.gridy = gridy;
+        group.add(textField, gbc);
+        return textField;
+    }
+
     /**
      * Brings up a JFileChooser to choose a directory.
      */
@@ -266,6 +426,49 @@ public class PreferencesDialog extends JDialog implements IConstants
         if(gitExtensionsPathTxt != null) {
             gitExtensionsPathTxt.setText(settings.getGitExtensionsPath());
         }
+        if(refreshThreadsTxt != null) {
+            refreshThreadsTxt
+                .setText(Integer.toString(settings.getRefreshThreads()));
+        }
+        if(maxOpenRepositoriesTxt != null) {
+            maxOpenRepositoriesTxt
+                .setText(Integer.toString(settings.getMaxOpenRepositories()));
+        }
+        if(maxOpenPackFilesTxt != null) {
+            maxOpenPackFilesTxt
+                .setText(Integer.toString(settings.getMaxOpenPackFiles()));
+        }
+        if(packMemoryTxt != null) {
+            packMemoryTxt.setText(Integer.toString(settings.getPackMemoryMb()));
+        }
+        if(divergenceModeCombo != null) {
+            divergenceModeCombo.setSelectedItem(settings.getDivergenceMode());
+        }
+        if(divergenceCacheSizeTxt != null) {
+            divergenceCacheSizeTxt
+                .setText(Integer.toString(settings.getDivergenceCacheSize()));
+        }
+        if(discoveryDepthTxt != null) {
+            discoveryDepthTxt
+                .setText(Integer.toString(settings.getDiscoveryDepth()));
+        }
+        if(monitorCheck != null) {
+            monitorCheck.setSelected(settings.isMonitor());
+        }
+        if(monitorWorkTreesCheck != null) {
+            monitorWorkTreesCheck.setSelected(settings.isMonitorWorkTrees());
+        }
+        if(monitorDelayTxt != null) {
+            monitorDelayTxt
+                .setText(Integer.toString(settings.getMonitorDelayMs()));
+        }
+        if(monitorPollTxt != null) {
+            monitorPollTxt
+                .setText(Integer.toString(settings.getMonitorPollSec()));
+        }
+        if(maxWatchesTxt != null) {
+            maxWatchesTxt.setText(Integer.toString(settings.getMaxWatches()));
+        }
     }
 
     /**
@@ -282,6 +485,28 @@ public class PreferencesDialog extends JDialog implements IConstants
         }
         try {
             settings.setGitExtensionsPath(gitExtensionsPathTxt.getText());
+            settings.setRefreshThreads(
+                Integer.parseInt(refreshThreadsTxt.getText().trim()));
+            settings.setMaxOpenRepositories(
+                Integer.parseInt(maxOpenRepositoriesTxt.getText().trim()));
+            settings.setMaxOpenPackFiles(
+                Integer.parseInt(maxOpenPackFilesTxt.getText().trim()));
+            settings.setPackMemoryMb(
+                Integer.parseInt(packMemoryTxt.getText().trim()));
+            settings.setDivergenceMode(
+                (DivergenceMode)divergenceModeCombo.getSelectedItem());
+            settings.setDivergenceCacheSize(
+                Integer.parseInt(divergenceCacheSizeTxt.getText().trim()));
+            settings.setDiscoveryDepth(
+                Integer.parseInt(discoveryDepthTxt.getText().trim()));
+            settings.setMonitor(monitorCheck.isSelected());
+            settings.setMonitorWorkTrees(monitorWorkTreesCheck.isSelected());
+            settings.setMonitorDelayMs(
+                Integer.parseInt(monitorDelayTxt.getText().trim()));
+            settings.setMonitorPollSec(
+                Integer.parseInt(monitorPollTxt.getText().trim()));
+            settings.setMaxWatches(
+                Integer.parseInt(maxWatchesTxt.getText().trim()));
         } catch(Exception ex) {
             Utils.excMsg("Error reading values", ex);
             return false;
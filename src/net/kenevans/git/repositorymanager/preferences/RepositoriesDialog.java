@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListCellRenderer;
@@ -29,6 +30,7 @@ import javax.swing.JSplitPane;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
+import net.kenevans.git.repositorymanager.model.ExcludeMatcher;
 import net.kenevans.git.repositorymanager.model.IConstants;
 import net.kenevans.git.repositorymanager.model.RepositoryLocations;
 import net.kenevans.git.repositorymanager.ui.RepositoryManager;
@@ -56,7 +58,7 @@ public class RepositoriesDialog extends JDialog implements IConstants
     private boolean ok = true;
 
     private static enum RType {
-        PARENT, INDIVIDUAL, EXCLUDE,
+        PARENT, INDIVIDUAL, EXCLUDE, PRUNE,
     };
 
     private RepositoryManager manager;
@@ -68,6 +70,8 @@ public class RepositoriesDialog extends JDialog implements IConstants
     private JList<String> individualList = new JList<>(individualListModel);
     private DefaultListModel<String> excludeListModel = new DefaultListModel<>();
     private JList<String> excludeList = new JList<>(excludeListModel);
+    private DefaultListModel<String> pruneListModel = new DefaultListModel<>();
+    private JList<String> pruneList = new JList<>(pruneListModel);
 
     /** Keeps the last-used path for the file open dialog. */
     public String defaultAddPath;
@@ -92,6 +96,7 @@ public class RepositoriesDialog extends JDialog implements IConstants
         populate(RType.PARENT);
         populate(RType.INDIVIDUAL);
         populate(RType.EXCLUDE);
+        populate(RType.PRUNE);
 
         // Locate it on the screen
         this.setLocationRelativeTo(parent);
@@ -128,6 +133,9 @@ public class RepositoriesDialog extends JDialog implements IConstants
             RType.INDIVIDUAL, individualList);
         JPanel excludePanel = createPanelForType(
             "Exclude Specific Repositories", RType.EXCLUDE, excludeList);
+        JPanel prunePanel = createPanelForType(
+            "Directories Not to Search (Names or Patterns)", RType.PRUNE,
+            pruneList);
 
         // Main split pane
         final JSplitPane firstPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
@@ -142,9 +150,16 @@ public class RepositoriesDialog extends JDialog implements IConstants
             }
         });
 
+        // Exclude and prune split pane
+        final JSplitPane thirdPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+            excludePanel, prunePanel);
+        thirdPane.setContinuousLayout(true);
+        thirdPane.setResizeWeight(.5);
+        thirdPane.setBorder(BorderFactory.createEmptyBorder(0, 0, 0, 0));
+
         // Second split pane
         final JSplitPane secondPane = new JSplitPane(
-            JSplitPane.HORIZONTAL_SPLIT, individualPanel, excludePanel);
+            JSplitPane.HORIZONTAL_SPLIT, individualPanel, thirdPane);
         secondPane.setContinuousLayout(true);
         // Keep the same relative size
         secondPane.addComponentListener(new ComponentAdapter() {
@@ -340,6 +355,32 @@ public class RepositoriesDialog extends JDialog implements IConstants
         });
         buttonPanel.add(button);
 
+        if(type == RType.EXCLUDE) {
+            button = new JButton();
+            button.setText("Add Pattern...");
+            button.setToolTipText("Add a glob pattern, such as **/archive, "
+                + "for directories to exclude.");
+            button.addActionListener(new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent ev) {
+                    addPattern();
+                }
+            });
+            buttonPanel.add(button);
+        }
+
+        if(type == RType.PRUNE) {
+            button = new JButton();
+            button.setText("Max Entries...");
+            button.setToolTipText("Set the maximum number of entries in a "
+                + "directory for it to be searched.");
+            button.addActionListener(new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent ev) {
+                    setMaxEntries();
+                }
+            });
+            buttonPanel.add(button);
+        }
+
         button = new JButton();
         button.setText("Delete");
         button.setToolTipText("Delete selected items.");
@@ -421,6 +462,22 @@ public class RepositoriesDialog extends JDialog implements IConstants
             }
         });
 
+        // Prune list renderer
+        pruneList.setCellRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            public Component getListCellRendererComponent(JList<?> list,
+                Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+                JLabel label = (JLabel)super.getListCellRendererComponent(list,
+                    value, index, isSelected, cellHasFocus);
+                String name = (String)value;
+                // Set the text
+                label.setText(name);
+                return label;
+            }
+        });
+
     }
 
     /**
@@ -444,6 +501,10 @@ public class RepositoriesDialog extends JDialog implements IConstants
             array = repositoryLocations.getExcludeRepositories();
             model = excludeListModel;
             list = excludeList;
+        } else if(type == RType.PRUNE) {
+            array = repositoryLocations.getPruneRules();
+            model = pruneListModel;
+            list = pruneList;
         } else {
             return;
         }
@@ -465,6 +526,10 @@ public class RepositoriesDialog extends JDialog implements IConstants
     private void add(RType type, java.awt.event.ActionEvent ev) {
         ArrayList<String> array;
         String[] dirs;
+        if(type == RType.PRUNE) {
+            addPruneRule();
+            return;
+        }
         if(type == RType.PARENT) {
             array = repositoryLocations.getParentDirectories();
         } else if(type == RType.INDIVIDUAL) {
@@ -488,6 +553,86 @@ public class RepositoriesDialog extends JDialog implements IConstants
         populate(type);
     }
 
+    /**
+     * Add a glob pattern to the exclude list.
+     */
+    private void addPattern() {
+        String pattern = JOptionPane.showInputDialog(this,
+            "Enter a glob pattern for the directories to exclude."
+                + " It is matched against the full path." + LS
+                + "For example, **/archive excludes every directory named"
+                + " archive.",
+            "Add Pattern", JOptionPane.PLAIN_MESSAGE);
+        if(pattern == null || pattern.trim().isEmpty()) {
+            return;
+        }
+        pattern = pattern.trim();
+        if(!ExcludeMatcher.isPattern(pattern)) {
+            Utils.errMsg("Not a glob pattern. Use Add... for directories.");
+            return;
+        }
+        try {
+            ExcludeMatcher.compile(pattern);
+        } catch(PatternSyntaxException ex) {
+            Utils.excMsg("Invalid pattern", ex);
+            return;
+        }
+        repositoryLocations.getExcludeRepositories().add(pattern);
+        populate(RType.EXCLUDE);
+    }
+
+    /**
+     * Add a directory name or glob pattern to the prune list.
+     */
+    private void addPruneRule() {
+        String rule = JOptionPane.showInputDialog(this,
+            "Enter a directory name or glob pattern for directories not to"
+                + " search." + LS + "A pattern with a / is matched against"
+                + " the full path, otherwise against the name." + LS
+                + "For example, node_modules or *.egg-info.",
+            "Add Prune Rule", JOptionPane.PLAIN_MESSAGE);
+        if(rule == null || rule.trim().isEmpty()) {
+            return;
+        }
+        rule = rule.trim();
+        if(ExcludeMatcher.isPattern(rule)) {
+            try {
+                ExcludeMatcher.compile(rule);
+            } catch(PatternSyntaxException ex) {
+                Utils.excMsg("Invalid pattern", ex);
+                return;
+            }
+        }
+        repositoryLocations.getPruneRules().add(rule);
+        populate(RType.PRUNE);
+    }
+
+    /**
+     * Sets the maximum number of entries in a directory for it to be
+     * searched.
+     */
+    private void setMaxEntries() {
+        String value = (String)JOptionPane.showInputDialog(this,
+            "Enter the maximum number of entries in a directory for it to be"
+                + " searched." + LS + "0 means no limit. The limit does not"
+                + " apply to the parent directories themselves.",
+            "Max Entries", JOptionPane.PLAIN_MESSAGE, null, null,
+            Integer.toString(repositoryLocations.getMaxDirectoryEntries()));
+        if(value == null) {
+            return;
+        }
+        try {
+            int maxEntries = Integer.parseInt(value.trim());
+            if(maxEntries < 0) {
+                Utils.errMsg("Max entries must be 0 or more");
+                return;
+            }
+            repositoryLocations.setMaxDirectoryEntries(maxEntries);
+        } catch(NumberFormatException ex) {
+            Utils.excMsg("Invalid max entries", ex);
+        }
+    }
+
     /**
      * Remove a directory from the list.
      * 
@@ -507,10 +652,14 @@ public class RepositoriesDialog extends JDialog implements IConstants
             array = repositoryLocations.getIndividualRepositories();
             model = individualListModel;
             list = individualList;
-        } else {
+        } else if(type == RType.EXCLUDE) {
             array = repositoryLocations.getExcludeRepositories();
             model = excludeListModel;
             list = excludeList;
+        } else {
+            array = repositoryLocations.getPruneRules();
+            model = pruneListModel;
+            list = pruneList;
         }
         selectedIndices = list.getSelectedIndices();
         if(selectedIndices.length == 0) {
@@ -593,6 +742,7 @@ public class RepositoriesDialog extends JDialog implements IConstants
         populate(RType.PARENT);
         populate(RType.INDIVIDUAL);
         populate(RType.EXCLUDE);
+        populate(RType.PRUNE);
     }
 
     /**
@@ -612,6 +762,7 @@ public class RepositoriesDialog extends JDialog implements IConstants
         populate(RType.PARENT);
         populate(RType.INDIVIDUAL);
         populate(RType.EXCLUDE);
+        populate(RType.PRUNE);
     }
 
     /**
@@ -627,6 +778,7 @@ public class RepositoriesDialog extends JDialog implements IConstants
         populate(RType.PARENT);
         populate(RType.INDIVIDUAL);
         populate(RType.EXCLUDE);
+        populate(RType.PRUNE);
     }
 
     /**
@@ -2,6 +2,7 @@ package net.kenevans.git.repositorymanager.preferences;
 
 import java.util.prefs.Preferences;
 
+import net.kenevans.git.repositorymanager.model.DivergenceMode;
 import net.kenevans.git.repositorymanager.model.IConstants;
 import net.kenevans.git.repositorymanager.ui.RepositoryManager;
 import net.kenevans.git.repositorymanager.utils.Utils;
@@ -14,6 +15,18 @@ import net.kenevans.git.repositorymanager.utils.Utils;
 public class Settings implements IConstants
 {
     private String gitExtensionsPath = D_GIT_EXTENSIONS_PATH;
+    private int refreshThreads = D_REFRESH_THREADS;
+    private int maxOpenRepositories = D_MAX_OPEN_REPOSITORIES;
+    private int maxOpenPackFiles = D_MAX_OPEN_PACK_FILES;
+    private int packMemoryMb = D_PACK_MEMORY_MB;
+    private DivergenceMode divergenceMode = D_DIVERGENCE_MODE;
+    private int divergenceCacheSize = D_DIVERGENCE_CACHE_SIZE;
+    private int discoveryDepth = D_DISCOVERY_DEPTH;
+    private boolean monitor = D_MONITOR;
+    private boolean monitorWorkTrees = D_MONITOR_WORK_TREES;
+    private int monitorDelayMs = D_MONITOR_DELAY_MS;
+    private int monitorPollSec = D_MONITOR_POLL_SEC;
+    private int maxWatches = D_MAX_WATCHES;
 
     /**
      * Loads the settings from the preferences
@@ -22,6 +35,27 @@ public class Settings implements IConstants
         Preferences prefs = RepositoryManager.getUserPreferences();
         gitExtensionsPath = prefs.get(P_GIT_EXTENSIONS_PATH,
             D_GIT_EXTENSIONS_PATH);
+        refreshThreads = prefs.getInt(P_REFRESH_THREADS, D_REFRESH_THREADS);
+        maxOpenRepositories = prefs.getInt(P_MAX_OPEN_REPOSITORIES,
+            D_MAX_OPEN_REPOSITORIES);
+        maxOpenPackFiles = prefs.getInt(P_MAX_OPEN_PACK_FILES,
+            D_MAX_OPEN_PACK_FILES);
+        packMemoryMb = prefs.getInt(P_PACK_MEMORY_MB, D_PACK_MEMORY_MB);
+        try {
+            divergenceMode = DivergenceMode.valueOf(
+                prefs.get(P_DIVERGENCE_MODE, D_DIVERGENCE_MODE.name()));
+        } catch(IllegalArgumentException ex) {
+            divergenceMode = D_DIVERGENCE_MODE;
+        }
+        divergenceCacheSize = prefs.getInt(P_DIVERGENCE_CACHE_SIZE,
+            D_DIVERGENCE_CACHE_SIZE);
+        discoveryDepth = prefs.getInt(P_DISCOVERY_DEPTH, D_DISCOVERY_DEPTH);
+        monitor = prefs.getBoolean(P_MONITOR, D_MONITOR);
+        monitorWorkTrees = prefs.getBoolean(P_MONITOR_WORK_TREES,
+            D_MONITOR_WORK_TREES);
+        monitorDelayMs = prefs.getInt(P_MONITOR_DELAY_MS, D_MONITOR_DELAY_MS);
+        monitorPollSec = prefs.getInt(P_MONITOR_POLL_SEC, D_MONITOR_POLL_SEC);
+        maxWatches = prefs.getInt(P_MAX_WATCHES, D_MAX_WATCHES);
     }
 
     /**
@@ -38,6 +72,18 @@ public class Settings implements IConstants
         try {
             Preferences prefs = RepositoryManager.getUserPreferences();
             prefs.put(P_GIT_EXTENSIONS_PATH, gitExtensionsPath);
+            prefs.putInt(P_REFRESH_THREADS, refreshThreads);
+            prefs.putInt(P_MAX_OPEN_REPOSITORIES, maxOpenRepositories);
+            prefs.putInt(P_MAX_OPEN_PACK_FILES, maxOpenPackFiles);
+            prefs.putInt(P_PACK_MEMORY_MB, packMemoryMb);
+            prefs.put(P_DIVERGENCE_MODE, divergenceMode.name());
+            prefs.putInt(P_DIVERGENCE_CACHE_SIZE, divergenceCacheSize);
+            prefs.putInt(P_DISCOVERY_DEPTH, discoveryDepth);
+            prefs.putBoolean(P_MONITOR, monitor);
+            prefs.putBoolean(P_MONITOR_WORK_TREES, monitorWorkTrees);
+            prefs.putInt(P_MONITOR_DELAY_MS, monitorDelayMs);
+            prefs.putInt(P_MONITOR_POLL_SEC, monitorPollSec);
+            prefs.putInt(P_MAX_WATCHES, maxWatches);
         } catch(Exception ex) {
             retVal = false;
             if(showErrors) {
@@ -56,6 +102,57 @@ public class Settings implements IConstants
     public boolean checkValues(boolean showErrors) {
         boolean retVal = true;
 
+        // Refresh threads
+        if(refreshThreads < 1) {
+            if(showErrors) {
+                Utils.errMsg("The number of refresh threads must be positive");
+            }
+            retVal = false;
+        }
+
+        // Repository and pack file limits
+        if(maxOpenRepositories < 1 || maxOpenPackFiles < 1
+            || packMemoryMb < 1) {
+            if(showErrors) {
+                Utils.errMsg("The open repository, open pack file, and pack "
+                    + "memory limits must be positive");
+            }
+            retVal = false;
+        }
+
+        // Divergence mode
+        if(divergenceMode == null) {
+            if(showErrors) {
+                Utils.errMsg("The divergence mode is not set");
+            }
+            retVal = false;
+        }
+
+        // Divergence cache
+        if(divergenceCacheSize < 0) {
+            if(showErrors) {
+                Utils.errMsg("The divergence cache size must not be negative");
+            }
+            retVal = false;
+        }
+
+        // Discovery
+        if(discoveryDepth < 1) {
+            if(showErrors) {
+                Utils.errMsg("The search depth must be at least 1");
+            }
+            retVal = false;
+        }
+
+        // Monitor
+        if(monitorDelayMs < 0 || monitorPollSec < 1 || maxWatches < 0) {
+            if(showErrors) {
+                Utils.errMsg("The monitor delay and maximum watches must not "
+                    + "be negative and the poll interval must be positive");
+            }
+            retVal = false;
+        }
+
         // RepositoryLocations
         // if(defaultDirectory == null) {
         // if(showErrors) {
@@ -120,6 +217,18 @@ public class Settings implements IConstants
      */
     public void copyFrom(Settings settings) {
         this.gitExtensionsPath = settings.gitExtensionsPath;
+        this.refreshThreads = settings.refreshThreads;
+        this.maxOpenRepositories = settings.maxOpenRepositories;
+        this.maxOpenPackFiles = settings.maxOpenPackFiles;
+        this.packMemoryMb = settings.packMemoryMb;
+        this.divergenceMode = settings.divergenceMode;
+        this.divergenceCacheSize = settings.divergenceCacheSize;
+        this.discoveryDepth = settings.discoveryDepth;
+        this.monitor = settings.monitor;
+        this.monitorWorkTrees = settings.monitorWorkTrees;
+        this.monitorDelayMs = settings.monitorDelayMs;
+        this.monitorPollSec = settings.monitorPollSec;
+        this.maxWatches = settings.maxWatches;
     }
 
     /**
@@ -136,4 +245,172 @@ public class Settings implements IConstants
         this.gitExtensionsPath = gitExtensionsPath;
     }
 
+    /**
+     * @return The value of refreshThreads.
+     */
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    /**
+     * @param refreshThreads The new value for refreshThreads.
+     */
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+    /**
+     * @return The value of maxOpenRepositories.
+     */
+    public int getMaxOpenRepositories() {
+        return maxOpenRepositories;
+    }
+
+    /**
+     * @param maxOpenRepositories The new value for maxOpenRepositories.
+     */
+    public void setMaxOpenRepositories(int maxOpenRepositories) {
+        this.maxOpenRepositories = maxOpenRepositories;
+    }
+
+    /**
+     * @return The value of maxOpenPackFiles.
+     */
+    public int getMaxOpenPackFiles() {
+        return maxOpenPackFiles;
+    }
+
+    /**
+     * @param maxOpenPackFiles The new value for maxOpenPackFiles.
+     */
+    public void setMaxOpenPackFiles(int maxOpenPackFiles) {
+        this.maxOpenPackFiles = maxOpenPackFiles;
+    }
+
+    /**
+     * @return The value of packMemoryMb.
+     */
+    public int getPackMemoryMb() {
+        return packMemoryMb;
+    }
+
+    /**
+     * @param packMemoryMb The new value for packMemoryMb.
+     */
+    public void setPackMemoryMb(int packMemoryMb) {
+        this.packMemoryMb = packMemoryMb;
+    }
+
+    /**
+     * @return The value of divergenceMode.
+     */
+    public DivergenceMode getDivergenceMode() {
+        return divergenceMode;
+    }
+
+    /**
+     * @param divergenceMode The new value for divergenceMode.
+     */
+    public void setDivergenceMode(DivergenceMode divergenceMode) {
+        this.divergenceMode = divergenceMode;
+    }
+
+    /**
+     * @return The value of divergenceCacheSize.
+     */
+    public int getDivergenceCacheSize() {
+        return divergenceCacheSize;
+    }
+
+    /**
+     * @param divergenceCacheSize The new value for divergenceCacheSize.
+     */
+    public void setDivergenceCacheSize(int divergenceCacheSize) {
+        this.divergenceCacheSize = divergenceCacheSize;
+    }
+
+    /**
+     * @return The value of discoveryDepth.
+     */
+    public int getDiscoveryDepth() {
+        return discoveryDepth;
+    }
+
+    /**
+     * @param discoveryDepth The new value for discoveryDepth.
+     */
+    public void setDiscoveryDepth(int discoveryDepth) {
+        this.discoveryDepth = discoveryDepth;
+    }
+
+    /**
+     * @return The value of monitor.
+     */
+    public boolean isMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @param monitor The new value for monitor.
+     */
+    public void setMonitor(boolean monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return The value of monitorWorkTrees.
+     */
+    public boolean isMonitorWorkTrees() {
+        return monitorWorkTrees;
+    }
+
+    /**
+     * @param monitorWorkTrees The new value for monitorWorkTrees.
+     */
+    public void setMonitorWorkTrees(boolean monitorWorkTrees) {
+        this.monitorWorkTrees = monitorWorkTrees;
+    }
+
+    /**
+     * @return The value of monitorDelayMs.
+     */
+    public int getMonitorDelayMs() {
+        return monitorDelayMs;
+    }
+
+    /**
+     * @param monitorDelayMs The new value for monitorDelayMs.
+     */
+    public void setMonitorDelayMs(int monitorDelayMs) {
+        this.monitorDelayMs = monitorDelayMs;
+    }
+
+    /**
+     * @return The value of monitorPollSec.
+     */
+    public int getMonitorPollSec() {
+        return monitorPollSec;
+    }
+
+    /**
+     * @param monitorPollSec The new value for monitorPollSec.
+     */
+    public void setMonitorPollSec(int monitorPollSec) {
+        this.monitorPollSec = monitorPollSec;
+    }
+
+    /**
+     * @return The value of maxWatches.
+     */
+    public int getMaxWatches() {
+        return maxWatches;
+    }
+
+    /**
+     * @param maxWatches The new value for maxWatches.
+     */
+    public void setMaxWatches(int maxWatches) {
+        this.maxWatches = maxWatches;
+    }
+
 }
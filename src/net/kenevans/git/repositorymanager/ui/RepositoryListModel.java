@@ -0,0 +1,154 @@
+package net.kenevans.git.repositorymanager.ui;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+import net.kenevans.git.repositorymanager.model.RepositoryModel;
+
+/**
+ * RepositoryListModel is the ListModel for the list of repositories. The
+ * models are kept in an array in the order of a Comparator, so a model is
+ * found with a binary search, and changes are reported as ranges of rows
+ * rather than one at a time. Replacing all the models is one copy into the
+ * array and at most two events, however many models there are.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryListModel extends AbstractListModel<RepositoryModel>
+{
+    private static final long serialVersionUID = 1L;
+    private static final RepositoryModel[] EMPTY = new RepositoryModel[0];
+
+    private final Comparator<RepositoryModel> order;
+    private RepositoryModel[] models = EMPTY;
+    private int size;
+
+    /**
+     * RepositoryListModel constructor.
+     *
+     * @param order The order of the models.
+     */
+    public RepositoryListModel(Comparator<RepositoryModel> order) {
+        this.order = order;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public RepositoryModel getElementAt(int index) {
+        if(index >= size) {
+            throw new ArrayIndexOutOfBoundsException(
+                index + " >= " + size);
+        }
+        return models[index];
+    }
+
+    /**
+     * Replaces the models.
+     *
+     * @param newModels The new models, which must be in order.
+     */
+    public void setModels(List<RepositoryModel> newModels) {
+        int oldSize = size;
+        models = newModels.toArray(new RepositoryModel[newModels.size()]);
+        size = models.length;
+        if(oldSize > size) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        } else if(size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        }
+        int nChanged = Math.min(oldSize, size);
+        if(nChanged > 0) {
+            fireContentsChanged(this, 0, nChanged - 1);
+        }
+    }
+
+    /**
+     * Adds a model in order if it is not already in the list.
+     *
+     * @param model
+     * @return The index it was added at or -1 if it was already in the list.
+     */
+    public int add(RepositoryModel model) {
+        int index = search(model);
+        if(index >= 0) {
+            return -1;
+        }
+        index = -index - 1;
+        if(size == models.length) {
+            models = Arrays.copyOf(models,
+                Math.max(16, models.length + (models.length >> 1)));
+        }
+        System.arraycopy(models, index, models, index + 1, size - index);
+        models[index] = model;
+        size++;
+        fireIntervalAdded(this, index, index);
+        return index;
+    }
+
+    /**
+     * Gets the index of the given model.
+     *
+     * @param model
+     * @return The index or -1 if it is not in the list.
+     */
+    public int indexOf(RepositoryModel model) {
+        int index = search(model);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Reports that the rows in the given range have changed, such as when
+     * their state has been calculated.
+     *
+     * @param first The first index.
+     * @param last The last index.
+     */
+    public void fireRowsChanged(int first, int last) {
+        fireContentsChanged(this, first, last);
+    }
+
+    /**
+     * Finds the given model with a binary search. Models that are the same
+     * in the order, but not the same model, are skipped.
+     *
+     * @param model
+     * @return The index of the model if it is in the list, otherwise
+     *         (-(insertion point) - 1).
+     */
+    private int search(RepositoryModel model) {
+        int low = 0;
+        int high = size - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = order.compare(models[mid], model);
+            if(cmp < 0) {
+                low = mid + 1;
+            } else if(cmp > 0) {
+                high = mid - 1;
+            } else {
+                for(int i = mid; i >= 0
+                    && order.compare(models[i], model) == 0; i--) {
+                    if(models[i] == model) {
+                        return i;
+                    }
+                }
+                for(int i = mid + 1; i < size
+                    && order.compare(models[i], model) == 0; i++) {
+                    if(models[i] == model) {
+                        return i;
+                    }
+                }
+                return -mid - 1;
+            }
+        }
+        return -low - 1;
+    }
+
+}
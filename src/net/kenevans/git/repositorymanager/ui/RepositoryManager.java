@@ -12,19 +12,27 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.font.TextAttribute;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.prefs.Preferences;
 
 import javax.swing.DefaultListCellRenderer;
-import javax.swing.DefaultListModel;
+import javax.swing.JButton;
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -32,27 +40,45 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import net.kenevans.git.repositorymanager.model.IConstants;
+import net.kenevans.git.repositorymanager.model.RefreshEngine;
+import net.kenevans.git.repositorymanager.model.RefreshEngine.RefreshListener;
+import net.kenevans.git.repositorymanager.model.RefreshJob;
+import net.kenevans.git.repositorymanager.model.RefreshReport;
+import net.kenevans.git.repositorymanager.model.RepositoryMonitor;
 import net.kenevans.git.repositorymanager.model.RepositoryLocations;
+import net.kenevans.git.repositorymanager.model.RepositoryDiscovery;
+import net.kenevans.git.repositorymanager.model.RepositoryExporter;
+import net.kenevans.git.repositorymanager.model.RepositoryIndex;
 import net.kenevans.git.repositorymanager.model.RepositoryModel;
+import net.kenevans.git.repositorymanager.model.RepositoryStateSnapshot;
+import net.kenevans.git.repositorymanager.model.StateCounts;
 import net.kenevans.git.repositorymanager.preferences.PreferencesDialog;
 import net.kenevans.git.repositorymanager.preferences.RepositoriesDialog;
 import net.kenevans.git.repositorymanager.preferences.Settings;
+import net.kenevans.git.repositorymanager.utils.DivergenceCache;
 import net.kenevans.git.repositorymanager.utils.ImageUtils;
+import net.kenevans.git.repositorymanager.utils.JGitUtilities;
+import net.kenevans.git.repositorymanager.utils.RepositoryPool;
 import net.kenevans.git.repositorymanager.utils.ScrolledHTMLDialog;
 import net.kenevans.git.repositorymanager.utils.Utils;
 
@@ -66,7 +92,32 @@ public class RepositoryManager extends JFrame implements IConstants
 {
     private static final long serialVersionUID = 1L;
     public static final String LS = System.getProperty("line.separator");
-    private static final String DEFAULT_CSV_FILE = "Repository Summary.csv";
+    /** The name of an export file without the extension. */
+    private static final String DEFAULT_EXPORT_NAME = "Repository Summary";
+    /**
+     * The state flags that determine the icon for a repository. They are the
+     * low bits, so they can be used as an index.
+     */
+    private static final int ICON_FLAGS = RepositoryStateSnapshot.CLEAN
+        | RepositoryStateSnapshot.AHEAD | RepositoryStateSnapshot.BEHIND
+        | RepositoryStateSnapshot.NON_TRACKING_AHEAD
+        | RepositoryStateSnapshot.NON_TRACKING_BEHIND
+        | RepositoryStateSnapshot.NOT_TRACKING
+        | RepositoryStateSnapshot.NOT_FOUND
+        | RepositoryStateSnapshot.NO_REMOTE_BRANCHES;
+    /** The index in stateIcons for a state that has not been calculated. */
+    private static final int PENDING_ICON = ICON_FLAGS + 1;
+    /** Orders the repositories by path. */
+    private static final Comparator<RepositoryModel> PATH_ORDER;
+    static {
+        PATH_ORDER = new Comparator<RepositoryModel>() {
+            @Override
+            public int compare(RepositoryModel model1,
+                RepositoryModel model2) {
+                return model1.getFilePath().compareTo(model2.getFilePath());
+            }
+        };
+    }
 
     public static final boolean LOAD_TEST_REPOSITORIES = false;
 
@@ -76,22 +127,59 @@ public class RepositoryManager extends JFrame implements IConstants
     private RepositoriesDialog repositoriesDialog;
     private PreferencesDialog preferencesDialog;
     private ScrolledHTMLDialog overviewDialog;
+    private RefreshEngine refreshEngine;
+    private SwingWorker<RefreshReport, RefreshProgress> refreshWorker;
+    private RefreshReport lastRefreshReport;
+    /** The job calculating the states for the refresh in progress. */
+    private volatile RefreshJob refreshJob;
+    /** Whether the refresh in progress has been cancelled. */
+    private volatile boolean refreshCancelled;
+    /** The repositories last given priority in the refresh in progress. */
+    private List<RepositoryModel> prioritizedModels;
+    /** The worker getting the info for the selected repository. */
+    private SwingWorker<String, Void> infoWorker;
+    /** The worker getting the deep analysis. */
+    private SwingWorker<String, Void> deepAnalysisWorker;
+    private RepositoryMonitor monitor;
+    private DivergenceCache divergenceCache;
+    private RepositoryIndex repositoryIndex;
+    private final RepositoryDiscovery discovery = new RepositoryDiscovery();
+    /** The repositories that were new in the last refresh. */
+    private final Set<RepositoryModel> addedModels = new HashSet<>();
+    /** The repositories that were not found in the last refresh. */
+    private final Set<RepositoryModel> removedModels = new HashSet<>();
+    /** The number of directories each prune rule pruned in the last search. */
+    private volatile Map<String, Integer> pruneCounts = Collections
+        .emptyMap();
 
     // User interface controls (Many do not need to be global)
     private Container contentPane = this.getContentPane();
     private JPanel listPanel = new JPanel();
     private JPanel lowerPanel = new JPanel();
-    private DefaultListModel<RepositoryModel> listModel = new DefaultListModel<>();
+    private RepositoryListModel listModel = new RepositoryListModel(
+        PATH_ORDER);
     private JList<RepositoryModel> list = new JList<>(listModel);
+    /** The model in the list with the longest path, which sets the width. */
+    private RepositoryModel longestModel;
+    /** Updates the list with the states calculated in the background. */
+    private RepositoryUpdateDispatcher updateDispatcher;
+    /** The number of repositories in each state, for the summary. */
+    private final StateCounts stateCounts = new StateCounts();
     private JScrollPane listScrollPane;
     private JTextArea summaryTextArea;
     private JTextArea infoTextArea;
     private JPanel summaryPanel = new JPanel();
+    /** Shows the progress of a refresh. Only visible while refreshing. */
+    private JPanel progressPanel;
+    private JProgressBar progressBar;
+    private JLabel progressLabel;
+    private JButton cancelButton;
     private JPanel mainPanel = new JPanel();
     private JSplitPane mainPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
         summaryPanel, lowerPanel);
     private JMenuBar menuBar;
     private JPopupMenu listPopupMenu;
+    private JCheckBoxMenuItem monitorMenuItem;
 
     /** Array of file names for the viewer. */
     public String[] fileNames = {};
@@ -106,6 +194,13 @@ public class RepositoryManager extends JFrame implements IConstants
     private Image notFoundImage;
     private Image notTrackingImage;
     private Image noRemoteImage;
+    private Image pendingImage;
+    /**
+     * The icons for the states, indexed by the ICON_FLAGS in the state, made
+     * as they are needed, so painting a row makes nothing new. They are for
+     * the current icon size.
+     */
+    private final ImageIcon[] stateIcons = new ImageIcon[PENDING_ICON + 1];
 
     private int jPanelHeight;
 
@@ -116,14 +211,62 @@ public class RepositoryManager extends JFrame implements IConstants
         repositoryLocations = new RepositoryLocations();
         repositoryLocations.loadFromPreferences();
         loadUserPreferences();
+        RepositoryPool.configureWindowCache(settings.getMaxOpenPackFiles(),
+            settings.getPackMemoryMb());
+        divergenceCache = new DivergenceCache(
+            new File(getConfigDir(), DIVERGENCE_CACHE_FILE_NAME),
+            settings.getDivergenceCacheSize());
+        try {
+            divergenceCache.load();
+        } catch(IOException ex) {
+            // Start with an empty cache
+            ex.printStackTrace();
+        }
+        configureDivergenceCache();
+        refreshEngine = new RefreshEngine(settings.getRefreshThreads(),
+            settings.getMaxOpenRepositories());
+        refreshEngine.setDivergenceMode(settings.getDivergenceMode());
+        updateDispatcher = new RepositoryUpdateDispatcher(listModel,
+            RepositoryUpdateDispatcher.DEFAULT_INTERVAL_MS,
+            new RepositoryUpdateDispatcher.UpdateListener() {
+                @Override
+                public void repositoriesUpdated(List<RepositoryModel> models) {
+                    onRepositoriesChanged(models);
+                }
+            });
+        monitor = new RepositoryMonitor(refreshEngine, new RefreshListener() {
+            @Override
+            public void repositoryRefreshed(RepositoryModel model,
+                boolean skipped) {
+                if(!skipped) {
+                    updateDispatcher.post(model);
+                }
+            }
+
+            @Override
+            public void refreshFinished(RefreshReport report) {
+            }
+        });
+        configureMonitor();
         getIcons();
         uiInit();
+        // Show the repositories from the last session while they are found
+        repositoryIndex = new RepositoryIndex(
+            new File(getConfigDir(), REPOSITORY_INDEX_FILE_NAME));
+        try {
+            repositories = new ArrayList<>(repositoryIndex.load());
+        } catch(IOException ex) {
+            // Start with an empty list
+            ex.printStackTrace();
+        }
+        populateList();
         refresh();
     }
 
     /**
      * Calculates a list of repositories from the current parent directories,
-     * individual repositories, and exclude repositories.
+     * individual repositories, and exclude repositories. Repositories that
+     * were already in the list keep their model, so their state is kept.
      */
     public void setRepositories() {
         if(repositoryLocations == null) {
@@ -131,56 +274,127 @@ public class RepositoryManager extends JFrame implements IConstants
                 "Cannot set repositories, " + "repositoryLocations = null");
             return;
         }
-        repositories.clear();
-        // Directories
-        File parentDir;
-        for(String dirName : repositoryLocations.getParentDirectories()) {
-            parentDir = new File(dirName);
-            File[] files = parentDir.listFiles();
-            if(files ==  null) {
-                Utils.errMsg("There are no files in " + parentDir);
-                return;
+        List<String> errors = new ArrayList<>();
+        setRepositories(findRepositories(repositoryLocations, getModelsByPath(),
+            settings.getDiscoveryDepth(), errors, null));
+        showDiscoveryErrors(errors);
+    }
+
+    /**
+     * Replaces the list of repositories with the given one and populates the
+     * list. The ones that were not in the list before are marked as added,
+     * and the ones that are no longer in it are marked as removed and kept
+     * in the list until the next time. Must be called on the EDT.
+     * 
+     * @param models
+     */
+    private void setRepositories(List<RepositoryModel> models) {
+        addedModels.clear();
+        removedModels.clear();
+        // Nothing is new when there was nothing before
+        if(!repositories.isEmpty()) {
+            Set<RepositoryModel> oldModels = new HashSet<>(repositories);
+            for(RepositoryModel model : models) {
+                if(!oldModels.remove(model)) {
+                    addedModels.add(model);
+                }
             }
-            for(File dir : files) {
-                if(dir.isDirectory()) {
-                    // Check if there is a .git repository
-                    File[] files1 = dir.listFiles();
-                    for(File dir1 : files1) {
-                        if(dir1.isDirectory()
-                            && dir1.getName().equals(".git")) {
-                            repositories.add(new RepositoryModel(dir));
-                            continue;
+            removedModels.addAll(oldModels);
+        }
+        repositories = new ArrayList<>(models);
+        populateList();
+    }
+
+    /**
+     * Finds the repositories from the given parent directories, individual
+     * repositories, and exclude repositories. Each repository is only
+     * included once, however many ways it is reached. Repositories that are
+     * in the given map keep their model, so their state is kept. Does not use
+     * the UI, so it may be called from any thread.
+     * 
+     * @param locations
+     * @param oldModels The existing models by path.
+     * @param depth The number of levels to look for repositories.
+     * @param errors A list to add the errors finding repositories to.
+     * @param listener Notified of each model as it is found, from the crawl
+     *            threads. May be null.
+     * @return The models sorted by path.
+     */
+    private List<RepositoryModel> findRepositories(
+        RepositoryLocations locations,
+        final Map<String, RepositoryModel> oldModels, int depth,
+        List<String> errors, final FoundListener listener) {
+        final List<RepositoryModel> models = Collections
+            .synchronizedList(new ArrayList<RepositoryModel>());
+        // Leave out the excluded ones as they are found
+        synchronized(discovery) {
+            discovery.setMaxDepth(depth);
+            discovery.setPruneMatcher(locations.getPruneMatcher());
+            discovery.setMaxEntries(locations.getMaxDirectoryEntries());
+            discovery.discover(locations.getParentDirectories(),
+                locations.getIndividualRepositories(),
+                locations.getExcludeMatcher(),
+                new RepositoryDiscovery.DiscoveryListener() {
+                    @Override
+                    public void repositoryFound(File dir) {
+                        RepositoryModel model = getModel(oldModels,
+                            new RepositoryModel(dir));
+                        models.add(model);
+                        if(listener != null) {
+                            listener.repositoryFound(model);
                         }
                     }
-                }
-            }
+                });
+            errors.addAll(discovery.getErrors());
+            pruneCounts = discovery.getPruneCounts();
         }
 
-        // Individual
-        for(String dirName : repositoryLocations.getIndividualRepositories()) {
-            repositories.add(new RepositoryModel(dirName));
+        // Sort them
+        Collections.sort(models, PATH_ORDER);
+        return models;
+    }
+
+    /**
+     * Shows the errors from finding repositories if there are any.
+     * 
+     * @param errors
+     */
+    private void showDiscoveryErrors(List<String> errors) {
+        if(errors.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Errors finding repositories:");
+        for(String error : errors) {
+            sb.append(LS).append(error);
         }
+        Utils.errMsg(sb.toString());
+    }
 
-        // Exclude
-        for(String dirName : repositoryLocations.getExcludeRepositories()) {
-            RepositoryModel cur = new RepositoryModel(dirName);
-            for(Iterator<RepositoryModel> iterator = repositories
-                .iterator(); iterator.hasNext();) {
-                RepositoryModel repository = iterator.next();
-                if(repository.getFilePath().equals(cur.getFilePath())) {
-                    iterator.remove();
-                }
-            }
+    /**
+     * Gets the current models by path.
+     * 
+     * @return
+     */
+    private Map<String, RepositoryModel> getModelsByPath() {
+        Map<String, RepositoryModel> models = new HashMap<>();
+        for(RepositoryModel model : repositories) {
+            models.put(model.getFilePath(), model);
         }
+        return models;
+    }
 
-        // Sort them
-        Collections.sort(repositories, new Comparator<RepositoryModel>() {
-            @Override
-            public int compare(RepositoryModel model1, RepositoryModel model2) {
-                // TODO Auto-generated method stub
-                return (model2.getFilePath().compareTo(model2.getFilePath()));
-            }
-        });
+    /**
+     * Gets the existing model with the same path as the given one if there is
+     * one, otherwise the given one.
+     * 
+     * @param oldModels The existing models by path.
+     * @param model
+     * @return
+     */
+    private static RepositoryModel getModel(
+        Map<String, RepositoryModel> oldModels, RepositoryModel model) {
+        RepositoryModel oldModel = oldModels.get(model.getFilePath());
+        return oldModel != null ? oldModel : model;
     }
 
     /**
@@ -238,6 +452,82 @@ public class RepositoryManager extends JFrame implements IConstants
         image = ImageUtils.getImageFromClassResource(this.getClass(),
             "/resources/noremote.png");
         noRemoteImage = ImageUtils.resize(image, jPanelHeight, jPanelHeight);
+        image = ImageUtils.getImageFromClassResource(this.getClass(),
+            "/resources/pending.png");
+        pendingImage = ImageUtils.resize(image, jPanelHeight, jPanelHeight);
+        // The size may have changed
+        Arrays.fill(stateIcons, null);
+    }
+
+    /**
+     * Gets the icon for the given state, making it if it has not been made.
+     * 
+     * @param snapshot The state or null if it has not been calculated.
+     * @return
+     */
+    private ImageIcon getStateIcon(RepositoryStateSnapshot snapshot) {
+        int index = snapshot == null ? PENDING_ICON
+            : snapshot.getFlags() & ICON_FLAGS;
+        ImageIcon icon = stateIcons[index];
+        if(icon == null) {
+            icon = createStateIcon(index);
+            stateIcons[index] = icon;
+        }
+        return icon;
+    }
+
+    /**
+     * Makes the icon for the given state, which has up to three of the state
+     * images side by side.
+     * 
+     * @param index The ICON_FLAGS in the state or PENDING_ICON.
+     * @return
+     */
+    private ImageIcon createStateIcon(int index) {
+        BufferedImage bi = new BufferedImage(3 * jPanelHeight, jPanelHeight,
+            BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bi.createGraphics();
+        int pos = 0;
+        if(index == PENDING_ICON) {
+            // Not calculated yet
+            g.drawImage(pendingImage, pos, 0, null);
+        } else if((index & RepositoryStateSnapshot.NOT_FOUND) != 0) {
+            g.drawImage(notFoundImage, pos, 0, null);
+            pos += jPanelHeight;
+        } else {
+            if((index & RepositoryStateSnapshot.CLEAN) == 0) {
+                g.drawImage(commitImage, pos, 0, null);
+                pos += jPanelHeight;
+            }
+            if((index & RepositoryStateSnapshot.NO_REMOTE_BRANCHES) != 0) {
+                g.drawImage(noRemoteImage, pos, 0, null);
+                pos += jPanelHeight;
+            } else {
+                if((index & RepositoryStateSnapshot.NOT_TRACKING) != 0) {
+                    g.drawImage(notTrackingImage, pos, 0, null);
+                    pos += jPanelHeight;
+                } else {
+                    if((index & RepositoryStateSnapshot.BEHIND) != 0) {
+                        g.drawImage(pullImage, pos, 0, null);
+                        pos += jPanelHeight;
+                    } else if((index
+                        & RepositoryStateSnapshot.NON_TRACKING_BEHIND) != 0) {
+                        g.drawImage(nonTrackingPullImage, pos, 0, null);
+                        pos += jPanelHeight;
+                    }
+                    if((index & RepositoryStateSnapshot.AHEAD) != 0) {
+                        g.drawImage(pushImage, pos, 0, null);
+                        pos += jPanelHeight;
+                    } else if((index
+                        & RepositoryStateSnapshot.NON_TRACKING_AHEAD) != 0) {
+                        g.drawImage(nonTrackingPushImage, pos, 0, null);
+                        pos += jPanelHeight;
+                    }
+                }
+            }
+        }
+        g.dispose();
+        return new ImageIcon(bi);
     }
 
     /**
@@ -257,8 +547,34 @@ public class RepositoryManager extends JFrame implements IConstants
         JScrollPane summaryScrollPane = new JScrollPane(summaryTextArea);
         summaryPanel.add(summaryScrollPane, BorderLayout.CENTER);
 
+        // Progress panel
+        progressPanel = new JPanel();
+        progressPanel.setLayout(new BorderLayout(5, 0));
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressPanel.add(progressBar, BorderLayout.CENTER);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setToolTipText(
+            "Stop refreshing, keeping the states already calculated");
+        cancelButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                cancelRefresh();
+            }
+        });
+        progressPanel.add(cancelButton, BorderLayout.EAST);
+        progressLabel = new JLabel(" ");
+        progressPanel.add(progressLabel, BorderLayout.SOUTH);
+        progressPanel.setVisible(false);
+        summaryPanel.add(progressPanel, BorderLayout.SOUTH);
+
         // List panel
         listScrollPane = new JScrollPane(list);
+        listScrollPane.getViewport().addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent ev) {
+                // Calculate the ones scrolled into view first
+                updateRefreshPriority();
+            }
+        });
         listPanel.setLayout(new BorderLayout());
         listPanel.add(listScrollPane, BorderLayout.CENTER);
         list.addListSelectionListener(new ListSelectionListener() {
@@ -283,6 +599,16 @@ public class RepositoryManager extends JFrame implements IConstants
         });
         listPopupMenu.add(item);
 
+        item = new JMenuItem("Deep Analysis...");
+        item.setToolTipText("Compare every local branch with every remote "
+            + "branch for the selected repository.");
+        item.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showDeepAnalysis();
+            }
+        });
+        listPopupMenu.add(item);
+
         list.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent ev) {
@@ -303,6 +629,12 @@ public class RepositoryManager extends JFrame implements IConstants
 
         list.setCellRenderer(new DefaultListCellRenderer() {
             private static final long serialVersionUID = 1L;
+            /** The font the fonts for the marks were made from. */
+            private Font baseFont;
+            /** The font for new repositories. */
+            private Font newFont;
+            /** The font for removed repositories. */
+            private Font removedFont;
 
             public Component getListCellRendererComponent(JList<?> list,
                 Object value, int index, boolean isSelected,
@@ -310,50 +642,26 @@ public class RepositoryManager extends JFrame implements IConstants
                 JLabel label = (JLabel)super.getListCellRendererComponent(list,
                     value, index, isSelected, cellHasFocus);
                 RepositoryModel model = (RepositoryModel)value;
-                // Set the text
                 label.setText(model.getFilePath());
-                // Set the icon
-                model.calculateState();
-                BufferedImage bi = new BufferedImage(3 * jPanelHeight,
-                    jPanelHeight, BufferedImage.TYPE_INT_ARGB);
-                Graphics g = bi.createGraphics();
-                int pos = 0;
-                if(model.isNotFound()) {
-                    g.drawImage(notFoundImage, pos, 0, null);
-                    pos += jPanelHeight;
-                } else {
-                    if(!model.isClean()) {
-                        g.drawImage(commitImage, pos, 0, null);
-                        pos += jPanelHeight;
-                    }
-                    if(model.isNoRemoteBranches()) {
-                        g.drawImage(noRemoteImage, pos, 0, null);
-                        pos += jPanelHeight;
-                    } else {
-                        if(model.isNotTracking()) {
-                            g.drawImage(notTrackingImage, pos, 0, null);
-                            pos += jPanelHeight;
-                        } else {
-                            if(model.isBehind()) {
-                                g.drawImage(pullImage, pos, 0, null);
-                                pos += jPanelHeight;
-                            } else if(model.isNonTrackingBehind()) {
-                                g.drawImage(nonTrackingPullImage, pos, 0, null);
-                                pos += jPanelHeight;
-                            }
-                            if(model.isAhead()) {
-                                g.drawImage(pushImage, pos, 0, null);
-                                pos += jPanelHeight;
-                            } else if(model.isNonTrackingAhead()) {
-                                g.drawImage(nonTrackingPushImage, pos, 0, null);
-                                pos += jPanelHeight;
-                            }
-                        }
+                // Mark the changes since the last time, bold for new and
+                // struck through for removed. The fonts are only made again
+                // if the font of the list changes.
+                if(addedModels.contains(model)
+                    || removedModels.contains(model)) {
+                    Font font = label.getFont();
+                    if(font != baseFont) {
+                        baseFont = font;
+                        newFont = font.deriveFont(Font.BOLD);
+                        removedFont = font.deriveFont(Collections
+                            .singletonMap(TextAttribute.STRIKETHROUGH,
+                                TextAttribute.STRIKETHROUGH_ON));
                     }
+                    label.setFont(addedModels.contains(model) ? newFont
+                        : removedFont);
                 }
-                label.setIcon(new ImageIcon(bi));
-                g.dispose();
-
+                // Set the icon from the last calculated state. Never
+                // calculate it here, this is called on every paint.
+                label.setIcon(getStateIcon(model.getSnapshot()));
                 return label;
             }
         });
@@ -413,6 +721,8 @@ public class RepositoryManager extends JFrame implements IConstants
         // Refresh
         menuItem = new JMenuItem();
         menuItem.setText("Refresh");
+        menuItem.setToolTipText(
+            "Refresh, keeping the state of unchanged repositories");
         menuItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent ae) {
                 refresh();
@@ -420,6 +730,29 @@ public class RepositoryManager extends JFrame implements IConstants
         });
         menu.add(menuItem);
 
+        // Full Refresh
+        menuItem = new JMenuItem();
+        menuItem.setText("Full Refresh");
+        menuItem.setToolTipText("Refresh, recalculating every repository");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                refresh(true);
+            }
+        });
+        menu.add(menuItem);
+
+        // Cancel Refresh
+        menuItem = new JMenuItem();
+        menuItem.setText("Cancel Refresh");
+        menuItem.setToolTipText(
+            "Stop refreshing, keeping the states already calculated");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                cancelRefresh();
+            }
+        });
+        menu.add(menuItem);
+
         // Export
         JMenu exportMenu = new JMenu();
         exportMenu.setText("Export...");
@@ -430,7 +763,29 @@ public class RepositoryManager extends JFrame implements IConstants
         menuItem.setText("CSV...");
         menuItem.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent ae) {
-                exportCSV();
+                exportFile(RepositoryExporter.Format.CSV);
+            }
+        });
+        exportMenu.add(menuItem);
+
+        // JSON
+        menuItem = new JMenuItem();
+        menuItem.setText("JSON...");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                exportFile(RepositoryExporter.Format.JSON);
+            }
+        });
+        exportMenu.add(menuItem);
+
+        // NDJSON
+        menuItem = new JMenuItem();
+        menuItem.setText("NDJSON...");
+        menuItem.setToolTipText("Newline-delimited JSON, one repository per "
+            + "line");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                exportFile(RepositoryExporter.Format.NDJSON);
             }
         });
         exportMenu.add(menuItem);
@@ -501,6 +856,19 @@ public class RepositoryManager extends JFrame implements IConstants
         });
         menu1.add(menuItem);
 
+        // Monitor
+        monitorMenuItem = new JCheckBoxMenuItem("Monitor Repositories");
+        monitorMenuItem.setToolTipText(
+            "Recalculate repositories automatically when they change");
+        monitorMenuItem.setSelected(settings.isMonitor());
+        monitorMenuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ae) {
+                settings.setMonitor(monitorMenuItem.isSelected());
+                updateMonitor();
+            }
+        });
+        menu.add(monitorMenuItem);
+
         menuItem = new JMenuItem();
         menuItem.setText("Preferences...");
         menuItem.addActionListener(new ActionListener() {
@@ -539,17 +907,59 @@ public class RepositoryManager extends JFrame implements IConstants
     }
 
     /**
-     * Updates the info text area.
+     * Updates the info text area. The info is found in the background, as it
+     * needs the full status, and a placeholder is shown until it is ready.
+     * The info for the previous repository is cancelled if it is not ready
+     * yet. It is not interrupted, as that would close the files JGit is
+     * reading, but it is not shown, and it is not started if it has not been
+     * already.
      * 
      * @param model
      */
-    public void updateInfoText(RepositoryModel model) {
-        String info = "";
-        if(model != null) {
-            info += model.getInfo() + LS;
+    public void updateInfoText(final RepositoryModel model) {
+        if(infoWorker != null) {
+            infoWorker.cancel(false);
+            infoWorker = null;
+        }
+        if(model == null) {
+            infoTextArea.setText("");
+            return;
         }
-        infoTextArea.setText(info);
+        infoTextArea.setText(model.getFilePath() + LS + "Loading..." + LS);
         infoTextArea.setCaretPosition(0);
+        infoWorker = new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return model.getInfo() + LS;
+            }
+
+            @Override
+            protected void done() {
+                // Only show the one for the current selection
+                if(isCancelled() || this != infoWorker) {
+                    return;
+                }
+                infoWorker = null;
+                try {
+                    infoTextArea.setText(get());
+                } catch(InterruptedException ex) {
+                    return;
+                } catch(ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause()
+                        : ex;
+                    infoTextArea.setText(model.getFilePath() + LS
+                        + "Error getting info: " + cause + LS);
+                }
+                infoTextArea.setCaretPosition(0);
+                // Getting the info calculates the state if it was not
+                int index = listModel.indexOf(model);
+                if(index >= 0) {
+                    listModel.fireRowsChanged(index, index);
+                }
+                stateCounts.update(model);
+            }
+        };
+        infoWorker.execute();
     }
 
     /**
@@ -557,31 +967,14 @@ public class RepositoryManager extends JFrame implements IConstants
      * 
      * @param fileName
      */
-    private void loadModel(final RepositoryModel model) {
+    private void loadModel(RepositoryModel model) {
         if(model == null) {
             Utils.errMsg("loadModel: Model is null");
             return;
         }
 
-        // Needs to be done this way to allow the text to change before reading
-        // the image.
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                Cursor oldCursor = getCursor();
-                try {
-                    setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                    updateInfoText(model);
-                } catch(Exception ex) {
-                    String msg = "Error loading model: " + model.getFilePath();
-                    Utils.excMsg(msg, ex);
-                } catch(Error err) {
-                    String msg = "Error loading model: " + model.getFilePath();
-                    Utils.excMsg(msg, err);
-                } finally {
-                    setCursor(oldCursor);
-                }
-            }
-        });
+        // The info is found in the background
+        updateInfoText(model);
     }
 
     /**
@@ -589,15 +982,73 @@ public class RepositoryManager extends JFrame implements IConstants
      */
     private void populateList() {
         list.setEnabled(false);
-        listModel.removeAllElements();
+        List<RepositoryModel> models = new ArrayList<>(repositories);
+        models.addAll(removedModels);
+        Collections.sort(models, PATH_ORDER);
+        longestModel = null;
+        for(RepositoryModel model : models) {
+            if(longestModel == null || model.getFilePath()
+                .length() > longestModel.getFilePath().length()) {
+                longestModel = model;
+            }
+        }
+        setCellSize(longestModel);
+        listModel.setModels(models);
+        stateCounts.clear();
         for(RepositoryModel model : repositories) {
-            listModel.addElement(model);
+            stateCounts.add(model);
         }
         list.validate();
         mainPane.validate();
         list.setEnabled(true);
     }
 
+    /**
+     * Adds a repository that was found to the list while the rest are being
+     * found, keeping the list sorted. It is marked as added if it was not in
+     * the list.
+     * 
+     * @param model
+     */
+    private void addFoundModel(RepositoryModel model) {
+        if(listModel.indexOf(model) >= 0) {
+            return;
+        }
+        // Nothing is new when there was nothing before
+        if(!repositories.isEmpty()) {
+            addedModels.add(model);
+        }
+        if(longestModel == null || model.getFilePath()
+            .length() > longestModel.getFilePath().length()) {
+            longestModel = model;
+            setCellSize(longestModel);
+        }
+        listModel.add(model);
+    }
+
+    /**
+     * Sets a fixed size for the cells in the list from the given model, so
+     * the list does not have to measure every row. The width is for the
+     * longest path with room for it in the bold font for new repositories.
+     * 
+     * @param prototype The model with the longest path or null to use an
+     *            empty path.
+     */
+    private void setCellSize(RepositoryModel prototype) {
+        if(prototype == null) {
+            prototype = new RepositoryModel("");
+        }
+        Component component = list.getCellRenderer()
+            .getListCellRendererComponent(list, prototype, 0, false, false);
+        Dimension size = component.getPreferredSize();
+        Font font = list.getFont();
+        String path = prototype.getFilePath();
+        list.setFixedCellHeight(size.height);
+        list.setFixedCellWidth(size.width
+            + list.getFontMetrics(font.deriveFont(Font.BOLD)).stringWidth(path)
+            - list.getFontMetrics(font).stringWidth(path));
+    }
+
     /**
      * Handler for the list. Toggles the checked state.
      * 
@@ -607,6 +1058,8 @@ public class RepositoryManager extends JFrame implements IConstants
         if(ev.getValueIsAdjusting()) return;
         RepositoryModel model = (RepositoryModel)list.getSelectedValue();
         if(model != null) loadModel(model);
+        // Calculate the selected one next
+        updateRefreshPriority();
     }
 
     /**
@@ -616,9 +1069,15 @@ public class RepositoryManager extends JFrame implements IConstants
         try {
             // Create and set up the window.
             this.setTitle(TITLE);
-            // USE EXIT_ON_CLOSE not DISPOSE_ON_CLOSE to close any modeless
-            // dialogs
-            this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            // Quit, rather than EXIT_ON_CLOSE, so the cache and index are
+            // saved. It also closes any modeless dialogs.
+            this.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+            this.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent ev) {
+                    quit();
+                }
+            });
             // frame.setLocationRelativeTo(null);
 
             // Set the icon
@@ -638,70 +1097,407 @@ public class RepositoryManager extends JFrame implements IConstants
     }
 
     /**
-     * Refreshes list.
+     * Refreshes list, keeping the state of repositories that have not
+     * changed.
      */
     public void refresh() {
-        setRepositories();
-        // Get the summary
-        summaryTextArea.setText(getSummary());
-        // Find in the list
-        populateList();
+        refresh(false);
     }
 
     /**
-     * Gets a summary of the state of all repositories in the list.
+     * Refreshes list. The repositories are found and their states are
+     * calculated in the background by the RefreshEngine. The repositories are
+     * added to the current list as they are found, and the list is replaced
+     * when they have all been found. The progress is shown in the summary
+     * panel, and the refresh can be cancelled with cancelRefresh().
      * 
-     * @return
+     * @param full Whether to calculate every repository. Otherwise ones whose
+     *            RepositoryFingerprint has not changed are skipped.
      */
-    private String getSummary() {
-        int totalCount = 0;
-        int dirtyCount = 0;
-        int aheadCount = 0;
-        int behindCount = 0;
-        int nonTrackingAheadCount = 0;
-        int nonTrackingBehindCount = 0;
-        int notTrackingCount = 0;
-        int notFoundCount = 0;
-        int noRemoteBranchesCount = 0;
-        for(RepositoryModel model : repositories) {
-            model.calculateState();
-            totalCount++;
-            if(!model.isClean()) {
-                dirtyCount++;
-            }
-            if(model.isAhead()) {
-                aheadCount++;
-            }
-            if(model.isBehind()) {
-                behindCount++;
+    public void refresh(final boolean full) {
+        if(refreshWorker != null && !refreshWorker.isDone()) {
+            Utils.warnMsg("A refresh is already in progress");
+            return;
+        }
+        if(repositoryLocations == null) {
+            Utils.errMsg("Cannot refresh, " + "repositoryLocations = null");
+            return;
+        }
+        final RepositoryLocations locations = new RepositoryLocations(
+            repositoryLocations);
+        final Map<String, RepositoryModel> oldModels = getModelsByPath();
+        final int depth = settings.getDiscoveryDepth();
+        refreshCancelled = false;
+        discovery.resetCancelled();
+        summaryTextArea.setText(LS + "Finding repositories... 0 found");
+        progressBar.setIndeterminate(true);
+        progressBar.setString("Finding repositories...");
+        progressLabel.setText(" ");
+        cancelButton.setEnabled(true);
+        progressPanel.setVisible(true);
+        refreshWorker = new SwingWorker<RefreshReport, RefreshProgress>() {
+            private final List<String> errors = new ArrayList<>();
+            private int foundCount;
+            private int doneCount;
+            private int total;
+            /** Whether all the repositories have been found. */
+            private boolean found;
+            /** When the states started being calculated, in ns. */
+            private long refreshStart;
+            /** The last repository that was refreshed. */
+            private RepositoryModel current;
+            /** The repositories to calculate first. */
+            private List<RepositoryModel> visibleModels;
+
+            @Override
+            protected RefreshReport doInBackground() throws Exception {
+                final List<RepositoryModel> models = findRepositories(
+                    locations, oldModels, depth, errors, new FoundListener() {
+                        @Override
+                        public void repositoryFound(RepositoryModel model) {
+                            publish(new RefreshProgress(model, true));
+                        }
+                    });
+                if(refreshCancelled) {
+                    // Keep the list as it was
+                    return null;
+                }
+                SwingUtilities.invokeAndWait(new Runnable() {
+                    public void run() {
+                        found = true;
+                        total = models.size();
+                        refreshStart = System.nanoTime();
+                        setRepositories(models);
+                        showProgress();
+                        visibleModels = getVisibleModels();
+                        prioritizedModels = visibleModels;
+                    }
+                });
+                RefreshJob job = refreshEngine.start(models, !full,
+                    new RefreshListener() {
+                        @Override
+                        public void repositoryRefreshed(
+                            RepositoryModel model, boolean skipped) {
+                            if(!skipped) {
+                                updateDispatcher.post(model);
+                            }
+                            publish(new RefreshProgress(model, false));
+                        }
+
+                        @Override
+                        public void refreshFinished(RefreshReport report) {
+                        }
+                    });
+                job.prioritize(visibleModels);
+                refreshJob = job;
+                // It may have been cancelled before there was a job
+                if(refreshCancelled) {
+                    job.cancel();
+                }
+                RefreshReport report = job.waitFor();
+                refreshJob = null;
+                // Save the states calculated even if it was cancelled
+                saveDivergenceCache();
+                saveRepositoryIndex(models);
+                return report;
             }
-            if(model.isNonTrackingAhead()) {
-                nonTrackingAheadCount++;
+
+            @Override
+            protected void process(List<RefreshProgress> chunks) {
+                for(RefreshProgress progress : chunks) {
+                    if(!progress.found) {
+                        doneCount++;
+                        current = progress.model;
+                    } else if(!found) {
+                        // The ones found after the list was replaced are
+                        // already in it
+                        foundCount++;
+                        addFoundModel(progress.model);
+                    }
+                }
+                showProgress();
             }
-            if(model.isNonTrackingBehind()) {
-                nonTrackingBehindCount++;
+
+            /**
+             * Shows the progress in the summary text area and the progress
+             * panel.
+             */
+            private void showProgress() {
+                if(!found) {
+                    summaryTextArea.setText(LS + "Finding repositories... "
+                        + foundCount + " found");
+                    progressBar.setString(
+                        "Finding repositories... " + foundCount + " found");
+                    return;
+                }
+                summaryTextArea.setText(LS + "Refreshing " + doneCount + " of "
+                    + total + " repositories...");
+                progressBar.setIndeterminate(false);
+                progressBar.setMaximum(total);
+                progressBar.setValue(doneCount);
+                String text = doneCount + " of " + total;
+                if(doneCount > 0 && doneCount < total) {
+                    long elapsedMs = (System.nanoTime() - refreshStart)
+                        / 1000000;
+                    text += ", about " + formatDuration(
+                        elapsedMs * (total - doneCount) / doneCount) + " left";
+                }
+                progressBar.setString(text);
+                if(current != null && !refreshCancelled) {
+                    progressLabel.setText(current.getFilePath());
+                }
             }
-            if(model.isNotTracking()) {
-                notTrackingCount++;
+
+            @Override
+            protected void done() {
+                boolean cancelledFinding = false;
+                try {
+                    RefreshReport report = get();
+                    if(report != null) {
+                        lastRefreshReport = report;
+                    } else {
+                        cancelledFinding = true;
+                    }
+                } catch(Exception ex) {
+                    Utils.excMsg("Error refreshing repositories", ex);
+                }
+                refreshJob = null;
+                prioritizedModels = null;
+                progressPanel.setVisible(false);
+                if(cancelledFinding) {
+                    // Take out the ones added while they were being found
+                    addedModels.retainAll(repositories);
+                    populateList();
+                }
+                // Show the last states and get the summary
+                updateDispatcher.flush();
+                String summary = getSummary();
+                if(cancelledFinding) {
+                    summary += "Cancelled while finding repositories" + LS;
+                }
+                summaryTextArea.setText(summary);
+                // Monitor the new list
+                updateMonitor();
+                showDiscoveryErrors(errors);
             }
-            if(model.isNotFound()) {
-                notFoundCount++;
+        };
+        refreshWorker.execute();
+    }
+
+    /**
+     * Cancels the refresh in progress, if any. The repositories already
+     * being calculated are finished and the states that have been calculated
+     * are kept. If the repositories are still being found, the list is left
+     * as it was. Returns immediately.
+     */
+    public void cancelRefresh() {
+        if(refreshWorker == null || refreshWorker.isDone()) {
+            return;
+        }
+        refreshCancelled = true;
+        cancelButton.setEnabled(false);
+        progressLabel.setText("Cancelling...");
+        discovery.cancel();
+        RefreshJob job = refreshJob;
+        if(job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Gives priority in the refresh in progress to the selected repository
+     * and then the ones that are visible in the list, if they have changed.
+     * Must be called on the EDT.
+     */
+    private void updateRefreshPriority() {
+        RefreshJob job = refreshJob;
+        if(job == null) {
+            return;
+        }
+        List<RepositoryModel> models = getVisibleModels();
+        if(models.equals(prioritizedModels)) {
+            return;
+        }
+        prioritizedModels = models;
+        job.prioritize(models);
+    }
+
+    /**
+     * Gets the selected repository followed by the ones that are visible in
+     * the list, from top to bottom.
+     * 
+     * @return
+     */
+    private List<RepositoryModel> getVisibleModels() {
+        List<RepositoryModel> models = new ArrayList<>();
+        RepositoryModel selected = list.getSelectedValue();
+        if(selected != null) {
+            models.add(selected);
+        }
+        int first = list.getFirstVisibleIndex();
+        int last = list.getLastVisibleIndex();
+        for(int i = Math.max(0, first); i <= last; i++) {
+            models.add(listModel.getElementAt(i));
+        }
+        return models;
+    }
+
+    /**
+     * Formats a time for the progress, as seconds or minutes and seconds.
+     * 
+     * @param ms
+     * @return
+     */
+    private static String formatDuration(long ms) {
+        long sec = (ms + 999) / 1000;
+        if(sec < 60) {
+            return sec + " s";
+        }
+        return String.format("%d:%02d min", sec / 60, sec % 60);
+    }
+
+    /**
+     * Uses the divergence cache for the ahead and behind counts if its size
+     * is not 0.
+     */
+    private void configureDivergenceCache() {
+        int size = settings.getDivergenceCacheSize();
+        divergenceCache.setMaxEntries(size);
+        JGitUtilities.setDivergenceCache(size > 0 ? divergenceCache : null);
+    }
+
+    /**
+     * Saves the divergence cache if it has changed. May be called from any
+     * thread.
+     */
+    private void saveDivergenceCache() {
+        try {
+            divergenceCache.save();
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the given repositories and their states to the index. May be
+     * called from any thread.
+     * 
+     * @param models
+     */
+    private void saveRepositoryIndex(List<RepositoryModel> models) {
+        try {
+            repositoryIndex.save(models);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Applies the monitor settings to the monitor. They take effect when it
+     * is next started.
+     */
+    private void configureMonitor() {
+        monitor.setWatchWorkTrees(settings.isMonitorWorkTrees());
+        monitor.setDelayMs(settings.getMonitorDelayMs());
+        monitor.setPollSec(settings.getMonitorPollSec());
+        monitor.setMaxWatches(settings.getMaxWatches());
+    }
+
+    /**
+     * Starts monitoring the current repositories or stops monitoring
+     * according to the settings. If it is already monitoring, only the
+     * repositories that were added or removed are changed.
+     */
+    private void updateMonitor() {
+        updateMonitor(false);
+    }
+
+    /**
+     * Starts monitoring the current repositories or stops monitoring
+     * according to the settings. The watches are registered in the
+     * background.
+     * 
+     * @param restart Whether to start again, as for new monitor settings,
+     *            even if it is already monitoring.
+     */
+    private void updateMonitor(boolean restart) {
+        if(monitorMenuItem != null) {
+            monitorMenuItem.setSelected(settings.isMonitor());
+        }
+        if(!settings.isMonitor()) {
+            monitor.stop();
+            return;
+        }
+        try {
+            if(restart) {
+                monitor.start(new ArrayList<>(repositories));
+            } else {
+                monitor.update(new ArrayList<>(repositories));
             }
-            if(model.isNoRemoteBranches()) {
-                noRemoteBranchesCount++;
+        } catch(Exception ex) {
+            Utils.excMsg("Error starting to monitor repositories", ex);
+            settings.setMonitor(false);
+            if(monitorMenuItem != null) {
+                monitorMenuItem.setSelected(false);
             }
         }
+    }
+
+    /**
+     * Updates the summary and info for repositories that were recalculated
+     * by a refresh or the monitor. The rows have already been updated by the
+     * RepositoryUpdateDispatcher.
+     * 
+     * @param models
+     */
+    private void onRepositoriesChanged(List<RepositoryModel> models) {
+        for(RepositoryModel model : models) {
+            stateCounts.update(model);
+        }
+        if(refreshWorker == null || refreshWorker.isDone()) {
+            summaryTextArea.setText(getSummary());
+        }
+        RepositoryModel selected = list.getSelectedValue();
+        if(selected != null && models.contains(selected)) {
+            updateInfoText(selected);
+        }
+    }
 
+    /**
+     * Gets a summary of the state of all repositories in the list.
+     * 
+     * @return
+     */
+    private String getSummary() {
         StringBuilder sb = new StringBuilder();
 
-        // Summary
+        // Summary, from the counts kept as the states change
         sb.append(LS);
-        sb.append("Total: " + totalCount + ", Dirty: " + dirtyCount
-            + ", Behind: " + behindCount + ", Non-Tracking Behind: "
-            + nonTrackingBehindCount + ", Ahead: " + aheadCount
-            + ", Non-Tracking Ahead: " + nonTrackingAheadCount + LS
-            + "Not tracking: " + notTrackingCount + ", No remote branches: "
-            + noRemoteBranchesCount + ", Not found: " + notFoundCount + LS);
+        sb.append("Total: " + stateCounts.getTotal() + ", Dirty: "
+            + stateCounts.getDirty() + ", Behind: " + stateCounts.getBehind()
+            + ", Non-Tracking Behind: " + stateCounts.getNonTrackingBehind()
+            + ", Ahead: " + stateCounts.getAhead() + ", Non-Tracking Ahead: "
+            + stateCounts.getNonTrackingAhead() + LS + "Not tracking: "
+            + stateCounts.getNotTracking() + ", No remote branches: "
+            + stateCounts.getNoRemoteBranches() + ", Not found: "
+            + stateCounts.getNotFound() + ", Pending: "
+            + stateCounts.getPending() + LS);
+        if(!pruneCounts.isEmpty()) {
+            sb.append("Directories pruned:");
+            String separator = " ";
+            for(Map.Entry<String, Integer> entry : pruneCounts.entrySet()) {
+                sb.append(separator + entry.getKey() + ": " + entry.getValue());
+                separator = ", ";
+            }
+            sb.append(LS);
+        }
+        if(!addedModels.isEmpty() || !removedModels.isEmpty()) {
+            sb.append("New: " + addedModels.size() + ", Removed: "
+                + removedModels.size() + LS);
+        }
+        if(lastRefreshReport != null) {
+            sb.append(lastRefreshReport.getSummary() + LS);
+        }
         return sb.toString();
     }
 
@@ -711,140 +1507,138 @@ public class RepositoryManager extends JFrame implements IConstants
      * @return
      */
     private String getSummaryDetails() {
-        int totalCount = 0;
-        int dirtyCount = 0;
-        int aheadCount = 0;
-        int behindCount = 0;
-        int nonTrackingAheadCount = 0;
-        int nonTrackingBehindCount = 0;
-        int notTrackingCount = 0;
-        int notFoundCount = 0;
+        ArrayList<String> pendingFiles = new ArrayList<>();
         ArrayList<String> dirtyFiles = new ArrayList<>();
         ArrayList<String> aheadFiles = new ArrayList<>();
         ArrayList<String> behindFiles = new ArrayList<>();
         ArrayList<String> nonTrackingAheadFiles = new ArrayList<>();
         ArrayList<String> nonTrackingBehindFiles = new ArrayList<>();
         ArrayList<String> notTrackingFiles = new ArrayList<>();
+        ArrayList<String> noRemoteBranchesFiles = new ArrayList<>();
         ArrayList<String> notFoundFiles = new ArrayList<>();
         for(RepositoryModel model : repositories) {
-            model.calculateState();
-            totalCount++;
-            if(!model.isClean()) {
-                dirtyCount++;
+            // Use one snapshot, as the state may change while this runs
+            RepositoryStateSnapshot snapshot = model.getSnapshot();
+            if(snapshot == null) {
+                pendingFiles.add(model.getFilePath());
+                continue;
+            }
+            int flags = snapshot.getFlags();
+            if((flags & RepositoryStateSnapshot.CLEAN) == 0) {
                 dirtyFiles.add(model.getFilePath());
             }
-            if(model.isAhead()) {
-                aheadCount++;
+            if((flags & RepositoryStateSnapshot.AHEAD) != 0) {
                 aheadFiles.add(model.getFilePath());
             }
-            if(model.isBehind()) {
-                behindCount++;
+            if((flags & RepositoryStateSnapshot.BEHIND) != 0) {
                 behindFiles.add(model.getFilePath());
             }
-            if(model.isNonTrackingAhead()) {
-                nonTrackingAheadCount++;
+            if((flags & RepositoryStateSnapshot.NON_TRACKING_AHEAD) != 0) {
                 nonTrackingAheadFiles.add(model.getFilePath());
             }
-            if(model.isNonTrackingBehind()) {
-                nonTrackingBehindCount++;
+            if((flags & RepositoryStateSnapshot.NON_TRACKING_BEHIND) != 0) {
                 nonTrackingBehindFiles.add(model.getFilePath());
             }
-            if(model.isNotTracking()) {
-                notTrackingCount++;
+            if((flags & RepositoryStateSnapshot.NOT_TRACKING) != 0) {
                 notTrackingFiles.add(model.getFilePath());
             }
-            if(model.isNotFound()) {
-                notFoundCount++;
+            if((flags & RepositoryStateSnapshot.NO_REMOTE_BRANCHES) != 0) {
+                noRemoteBranchesFiles.add(model.getFilePath());
+            }
+            if((flags & RepositoryStateSnapshot.NOT_FOUND) != 0) {
                 notFoundFiles.add(model.getFilePath());
             }
         }
 
         StringBuilder sb = new StringBuilder();
 
-        // Summary
-        String tab = "    ";
+        // Summary, from the same counts as the status summary
         sb.append(LS);
-        sb.append("Total: " + totalCount + ", Dirty: " + dirtyCount + LS
-            + "Behind: " + behindCount + ", Non_Tracking Behind: "
-            + nonTrackingBehindCount + LS + "Ahead: " + aheadCount
-            + ", Non-Tracking Ahead: " + nonTrackingAheadCount + LS
-            + "Not tracking: " + notTrackingCount + ", Not found: "
-            + notFoundCount + LS);
-        if(dirtyCount > 0) {
-            sb.append(LS);
-            sb.append("Dirty" + LS);
-            for(String string : dirtyFiles) {
-                sb.append(tab + string + LS);
-            }
-        }
-        if(behindCount > 0) {
+        sb.append("Total: " + stateCounts.getTotal() + ", Dirty: "
+            + stateCounts.getDirty() + ", Pending: "
+            + stateCounts.getPending() + LS + "Behind: "
+            + stateCounts.getBehind() + ", Non-Tracking Behind: "
+            + stateCounts.getNonTrackingBehind() + LS + "Ahead: "
+            + stateCounts.getAhead() + ", Non-Tracking Ahead: "
+            + stateCounts.getNonTrackingAhead() + LS + "Not tracking: "
+            + stateCounts.getNotTracking() + ", No remote branches: "
+            + stateCounts.getNoRemoteBranches() + ", Not found: "
+            + stateCounts.getNotFound() + LS);
+        appendFiles(sb, "Pending", pendingFiles);
+        appendFiles(sb, "Dirty", dirtyFiles);
+        appendFiles(sb, "Behind", behindFiles);
+        appendFiles(sb, "Ahead", aheadFiles);
+        appendFiles(sb, "Non-Tracking Behind", nonTrackingBehindFiles);
+        appendFiles(sb, "Non-Tracking Ahead", nonTrackingAheadFiles);
+        appendFiles(sb, "Not Tracking", notTrackingFiles);
+        appendFiles(sb, "No Remote Branches", noRemoteBranchesFiles);
+        appendFiles(sb, "Not Found", notFoundFiles);
+        if(lastRefreshReport != null) {
             sb.append(LS);
-            sb.append("Behind" + LS);
-            for(String fileName : behindFiles) {
-                sb.append(tab + fileName + LS);
-            }
-        }
-        if(aheadCount > 0) {
-            sb.append(LS);
-            sb.append("Ahead" + LS);
-            for(String fileName : aheadFiles) {
-                sb.append(tab + fileName + LS);
-            }
-        }
-        if(nonTrackingBehindCount > 0) {
-            sb.append(LS);
-            sb.append("Non-Tracking Behind" + LS);
-            for(String fileName : nonTrackingBehindFiles) {
-                sb.append(tab + fileName + LS);
-            }
-        }
-        if(nonTrackingAheadCount > 0) {
-            sb.append(LS);
-            sb.append("Non-Tracking Ahead" + LS);
-            for(String fileName : nonTrackingAheadFiles) {
-                sb.append(tab + fileName + LS);
-            }
+            sb.append(lastRefreshReport.getDetails());
         }
-        if(notTrackingCount > 0) {
-            sb.append(LS);
-            sb.append("Not Tracking" + LS);
-            for(String fileName : notTrackingFiles) {
-                sb.append(tab + fileName + LS);
-            }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a heading and the given file names, if there are any, to the
+     * summary details.
+     * 
+     * @param sb
+     * @param heading
+     * @param fileNames
+     */
+    private static void appendFiles(StringBuilder sb, String heading,
+        List<String> fileNames) {
+        if(fileNames.isEmpty()) {
+            return;
         }
-        if(notFoundCount > 0) {
-            sb.append(LS);
-            sb.append("Not Found" + LS);
-            for(String fileName : notFoundFiles) {
-                sb.append(tab + fileName + LS);
-            }
+        sb.append(LS);
+        sb.append(heading + LS);
+        for(String fileName : fileNames) {
+            sb.append("    " + fileName + LS);
         }
-        return sb.toString();
     }
 
-    private void writeCSV(File file) {
-        PrintWriter writer = null;
-        try {
-            // // DEBUG
-            // writer = new PrintWriter(System.out, true);
-            writer = new PrintWriter(file);
-            // Headings
-            String[] headings = RepositoryModel.getCVSHeadings();
-            for(String heading : headings) {
-                writer.print(heading + RepositoryModel.COMMA);
-            }
-            writer.println();
-            for(RepositoryModel model : repositories) {
-                writer.print(model.getCVSInfo());
+    /**
+     * Writes an export file for the repositories in the background. The rows
+     * are made in parallel by a RepositoryExporter, which only recalculates
+     * the repositories that have changed.
+     * 
+     * @param file
+     * @param format
+     */
+    private void writeExport(final File file,
+        final RepositoryExporter.Format format) {
+        final List<RepositoryModel> models = new ArrayList<>(repositories);
+        final RepositoryExporter exporter = new RepositoryExporter(
+            refreshEngine.getThreadCount(), settings.getMaxOpenRepositories(),
+            refreshEngine.getDivergenceMode());
+        final Cursor oldCursor = getCursor();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                exporter.write(models, file, format);
+                return null;
             }
-        } catch(Exception ex) {
-            Utils.excMsg("Error writing CSV file", ex);
-        } finally {
-            if(writer != null) {
-                writer.flush();
-                writer.close();
+
+            @Override
+            protected void done() {
+                setCursor(oldCursor);
+                try {
+                    get();
+                } catch(Exception ex) {
+                    Utils.excMsg("Error writing " + format.name() + " file",
+                        ex);
+                }
+                // Show any that were recalculated
+                for(RepositoryModel model : models) {
+                    updateDispatcher.post(model);
+                }
             }
-        }
+        };
+        worker.execute();
     }
 
     /**
@@ -855,6 +1649,50 @@ public class RepositoryManager extends JFrame implements IConstants
             DETAILS_WIDTH, DETAILS_HEIGHT);
     }
 
+    /**
+     * Shows the ahead and behind counts for all the branch pairs of the
+     * selected repository. They are calculated in the background, as there
+     * may be a great many pairs, and shown when they are ready.
+     */
+    private void showDeepAnalysis() {
+        final RepositoryModel model = list.getSelectedValue();
+        if(model == null) {
+            Utils.errMsg("There is no repository selected");
+            return;
+        }
+        if(deepAnalysisWorker != null && !deepAnalysisWorker.isDone()) {
+            Utils.warnMsg("A deep analysis is already in progress");
+            return;
+        }
+        final Cursor oldCursor = getCursor();
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        deepAnalysisWorker = new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return model.getDeepAnalysis();
+            }
+
+            @Override
+            protected void done() {
+                setCursor(oldCursor);
+                String info;
+                try {
+                    info = get();
+                } catch(InterruptedException ex) {
+                    return;
+                } catch(ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause()
+                        : ex;
+                    info = model.getFilePath() + LS
+                        + "Error getting deep analysis: " + cause + LS;
+                }
+                Utils.scrolledTextMsg(RepositoryManager.this, info,
+                    "Deep Analysis", DETAILS_WIDTH, DETAILS_HEIGHT);
+            }
+        };
+        deepAnalysisWorker.execute();
+    }
+
     /**
      * Brings up a dialog to manage repositories.
      */
@@ -880,18 +1718,22 @@ public class RepositoryManager extends JFrame implements IConstants
     }
 
     /**
-     * Exports a CSV file
+     * Exports a file in the given format.
+     * 
+     * @param format
      */
-    private void exportCSV() {
+    private void exportFile(final RepositoryExporter.Format format) {
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setSelectedFile(new File(DEFAULT_CSV_FILE));
+        fileChooser.setSelectedFile(
+            new File(DEFAULT_EXPORT_NAME + format.getExtension()));
         fileChooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             public boolean accept(File file) {
-                return file.isDirectory() || file.getName().endsWith(".csv");
+                return file.isDirectory()
+                    || file.getName().endsWith(format.getExtension());
             }
 
             public String getDescription() {
-                return "Comma Separated Values (CSV)";
+                return format.getDescription();
             }
         });
         if(fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
@@ -910,7 +1752,7 @@ public class RepositoryManager extends JFrame implements IConstants
         }
 
         // Save it
-        writeCSV(file);
+        writeExport(file, format);
     }
 
     /**
@@ -967,9 +1809,43 @@ public class RepositoryManager extends JFrame implements IConstants
      * Quits the application
      */
     private void quit() {
+        monitor.stop();
+        refreshEngine.shutdown();
+        saveDivergenceCache();
+        saveRepositoryIndex(repositories);
+        refreshEngine.getPool().closeAll();
         System.exit(0);
     }
 
+    /**
+     * FoundListener is notified of the repositories as they are found.
+     */
+    private interface FoundListener
+    {
+        /**
+         * Called once for each repository when it is found.
+         * 
+         * @param model
+         */
+        void repositoryFound(RepositoryModel model);
+    }
+
+    /**
+     * RefreshProgress is a repository that the refresh worker has found or
+     * refreshed.
+     */
+    private static class RefreshProgress
+    {
+        private final RepositoryModel model;
+        /** Whether it was found, otherwise it was refreshed. */
+        private final boolean found;
+
+        private RefreshProgress(RepositoryModel model, boolean found) {
+            this.model = model;
+            this.found = found;
+        }
+    }
+
     /**
      * @return The value of curFileName.
      */
@@ -986,6 +1862,15 @@ public class RepositoryManager extends JFrame implements IConstants
         return Preferences.userRoot().node(P_PREFERENCE_NODE);
     }
 
+    /**
+     * Returns the directory for the cache files. It may not exist yet.
+     * 
+     * @return
+     */
+    public static File getConfigDir() {
+        return new File(System.getProperty("user.home"), CONFIG_DIR_NAME);
+    }
+
     /**
      * Loads a hard-coded set of repositories for initialization or testing.
      * 
@@ -1067,6 +1952,16 @@ public class RepositoryManager extends JFrame implements IConstants
     public void onPreferenceReset(Settings settings) {
         // Copy from the given settings.
         this.settings.copyFrom(settings);
+        refreshEngine.setThreadCount(this.settings.getRefreshThreads());
+        refreshEngine.getPool()
+            .setMaxOpen(this.settings.getMaxOpenRepositories());
+        refreshEngine.setDivergenceMode(this.settings.getDivergenceMode());
+        RepositoryPool.configureWindowCache(
+            this.settings.getMaxOpenPackFiles(),
+            this.settings.getPackMemoryMb());
+        configureDivergenceCache();
+        configureMonitor();
+        updateMonitor(true);
     }
 
     /**
@@ -0,0 +1,128 @@
+package net.kenevans.git.repositorymanager.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import net.kenevans.git.repositorymanager.model.RepositoryModel;
+
+/**
+ * RepositoryUpdateDispatcher collects the repositories whose state has been
+ * calculated in the background and updates the list with them at most once
+ * per interval. The rows that changed are reported to the list model as
+ * ranges, and the listener is told which repositories changed, each only
+ * once however many times it changed in the interval. Repositories may be
+ * posted from any thread. The updates are made on the EDT.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryUpdateDispatcher
+{
+    /** The default time between updates. */
+    public static final int DEFAULT_INTERVAL_MS = 100;
+
+    private final RepositoryListModel listModel;
+    private final UpdateListener listener;
+    private final ConcurrentLinkedQueue<RepositoryModel> pending = new ConcurrentLinkedQueue<>();
+    /** Whether an update has been scheduled and not made yet. */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Timer timer;
+
+    /**
+     * RepositoryUpdateDispatcher constructor.
+     *
+     * @param listModel The list model to report the changed rows to.
+     * @param intervalMs The minimum time between updates.
+     * @param listener Told of the changes after the rows are reported.
+     */
+    public RepositoryUpdateDispatcher(RepositoryListModel listModel,
+        int intervalMs, UpdateListener listener) {
+        this.listModel = listModel;
+        this.listener = listener;
+        timer = new Timer(intervalMs, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent ev) {
+                flush();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Posts a repository whose state has changed. May be called from any
+     * thread.
+     *
+     * @param model
+     */
+    public void post(RepositoryModel model) {
+        pending.add(model);
+        if(scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    timer.restart();
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes the update for the repositories posted so far. Must be called on
+     * the EDT.
+     */
+    public void flush() {
+        timer.stop();
+        // Ones posted after this are in the next update
+        scheduled.set(false);
+        Set<RepositoryModel> changed = Collections
+            .newSetFromMap(new IdentityHashMap<RepositoryModel, Boolean>());
+        RepositoryModel model;
+        while((model = pending.poll()) != null) {
+            changed.add(model);
+        }
+        if(changed.isEmpty()) {
+            return;
+        }
+        // Find the rows and report them as ranges
+        int[] indices = new int[changed.size()];
+        int nIndices = 0;
+        for(RepositoryModel changedModel : changed) {
+            int index = listModel.indexOf(changedModel);
+            if(index >= 0) {
+                indices[nIndices++] = index;
+            }
+        }
+        Arrays.sort(indices, 0, nIndices);
+        int start = 0;
+        for(int i = 1; i <= nIndices; i++) {
+            if(i == nIndices || indices[i] != indices[i - 1] + 1) {
+                listModel.fireRowsChanged(indices[start], indices[i - 1]);
+                start = i;
+            }
+        }
+        listener.repositoriesUpdated(new ArrayList<>(changed));
+    }
+
+    /**
+     * UpdateListener is told which repositories changed in an update.
+     */
+    public interface UpdateListener
+    {
+        /**
+         * Called on the EDT after the rows have been reported.
+         *
+         * @param models The repositories that changed.
+         */
+        void repositoriesUpdated(List<RepositoryModel> models);
+    }
+
+}
@@ -0,0 +1,227 @@
+package net.kenevans.git.repositorymanager.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * DivergenceCache keeps the ahead and behind counts for pairs of commits. The
+ * counts depend only on the two commit ids, so an entry stays valid for as
+ * long as both ids are the tips of the branches, and for any other branches
+ * with the same tips. The least recently used entries are removed when there
+ * are more than the maximum. The cache is kept in a binary file, which has a
+ * header followed by the entries in least recently used order, each one being
+ * the two ids and the two counts.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class DivergenceCache
+{
+    /** Identifies the file. */
+    private static final int MAGIC = 0x52444356;
+    /** The version of the file format. */
+    private static final int VERSION = 1;
+
+    private final File file;
+    private int maxEntries;
+    private boolean modified;
+    private final LinkedHashMap<Key, int[]> entries = new LinkedHashMap<>(16,
+        .75f, true);
+
+    /**
+     * DivergenceCache constructor. The file is not read until load() is
+     * called.
+     *
+     * @param file The file to keep the cache in.
+     * @param maxEntries The maximum number of entries to keep.
+     */
+    public DivergenceCache(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * Gets the ahead and behind counts for the given commits.
+     *
+     * @param local The local commit.
+     * @param remote The remote commit.
+     * @return The counts or null if they are not in the cache.
+     */
+    public synchronized int[] get(AnyObjectId local, AnyObjectId remote) {
+        int[] counts = entries.get(new Key(local, remote));
+        return counts == null ? null : counts.clone();
+    }
+
+    /**
+     * Sets the ahead and behind counts for the given commits.
+     *
+     * @param local The local commit.
+     * @param remote The remote commit.
+     * @param ahead
+     * @param behind
+     */
+    public synchronized void put(AnyObjectId local, AnyObjectId remote,
+        int ahead, int behind) {
+        entries.put(new Key(local.copy(), remote.copy()),
+            new int[] {ahead, behind});
+        modified = true;
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries until there are no more than
+     * maxEntries.
+     */
+    private void evict() {
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while(entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            modified = true;
+        }
+    }
+
+    /**
+     * Reads the file, replacing the current entries. A missing file leaves
+     * the cache empty.
+     *
+     * @throws IOException If the file cannot be read or is not a cache file.
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        modified = false;
+        if(!file.exists()) {
+            return;
+        }
+        try(DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a divergence cache: " + file);
+            }
+            int count = in.readInt();
+            byte[] id = new byte[2 * Constants.OBJECT_ID_LENGTH];
+            for(int i = 0; i < count; i++) {
+                in.readFully(id);
+                int ahead = in.readInt();
+                int behind = in.readInt();
+                entries.put(
+                    new Key(ObjectId.fromRaw(id, 0),
+                        ObjectId.fromRaw(id, Constants.OBJECT_ID_LENGTH)),
+                    new int[] {ahead, behind});
+            }
+        } catch(EOFException ex) {
+            // Keep what was read from a truncated file
+            modified = true;
+        }
+        evict();
+    }
+
+    /**
+     * Writes the cache to the file if it has changed since it was loaded or
+     * saved. It is written to a temporary file that then replaces the file.
+     *
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if(!modified) {
+            return;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+            for(Map.Entry<Key, int[]> entry : entries.entrySet()) {
+                entry.getKey().local.copyRawTo(id, 0);
+                out.write(id);
+                entry.getKey().remote.copyRawTo(id, 0);
+                out.write(id);
+                out.writeInt(entry.getValue()[0]);
+                out.writeInt(entry.getValue()[1]);
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        modified = false;
+    }
+
+    /**
+     * @return The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The value of maxEntries.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries The new value for maxEntries.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        evict();
+    }
+
+    /**
+     * @return The value of file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Key is a pair of commit ids.
+     */
+    private static final class Key
+    {
+        private final AnyObjectId local;
+        private final AnyObjectId remote;
+
+        private Key(AnyObjectId local, AnyObjectId remote) {
+            this.local = local;
+            this.remote = remote;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return AnyObjectId.equals(local, other.local)
+                && AnyObjectId.equals(remote, other.remote);
+        }
+
+        @Override
+        public int hashCode() {
+            return local.hashCode() * 31 + remote.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+package net.kenevans.git.repositorymanager.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * GitLocation is where the parts of a repository are: the working tree, the
+ * git directory, and the common directory that has the objects, refs, and
+ * config. The common directory is the same as the git directory except for
+ * the linked working trees made by git worktree, which share the common
+ * directory of the repository they were made from.<br>
+ * <br>
+ * JGit does not read the gitdir and commondir files, so they are resolved
+ * here.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public final class GitLocation
+{
+    /** The prefix of the line in a .git file. */
+    private static final String GITDIR_PREFIX = "gitdir:";
+    /** The file in a git directory that gives the common directory. */
+    private static final String COMMONDIR = "commondir";
+    /** The directory in the common directory for linked working trees. */
+    public static final String WORKTREES = "worktrees";
+    /** The file in a linked git directory that gives its .git file. */
+    private static final String GITDIR = "gitdir";
+
+    /**
+     * Kind is the kind of checkout.
+     */
+    public static enum Kind {
+        /** A working tree with a .git directory. */
+        WORK_TREE,
+        /**
+         * A working tree with a .git file that points to its git directory,
+         * as for submodules and clones made with --separate-git-dir.
+         */
+        GIT_FILE,
+        /** A working tree added with git worktree. */
+        LINKED_WORK_TREE,
+        /** A repository without a working tree. */
+        BARE,
+    }
+
+    private final Kind kind;
+    private final File workTree;
+    private final File gitDir;
+    private final File commonDir;
+
+    private GitLocation(Kind kind, File workTree, File gitDir,
+        File commonDir) {
+        this.kind = kind;
+        this.workTree = workTree;
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+    }
+
+    /**
+     * Finds the repository in the given working tree or git directory.
+     *
+     * @param dir
+     * @return The location or null if there is no repository there.
+     */
+    public static GitLocation resolve(File dir) {
+        dir = dir.getAbsoluteFile();
+        File dotGit = new File(dir, Constants.DOT_GIT);
+        if(dotGit.isFile()) {
+            File gitDir = readPath(dotGit, dir);
+            if(gitDir == null
+                || !new File(gitDir, Constants.HEAD).isFile()) {
+                return null;
+            }
+            File commonDir = readCommonDir(gitDir);
+            if(commonDir != null) {
+                return new GitLocation(Kind.LINKED_WORK_TREE, dir, gitDir,
+                    commonDir);
+            }
+            return new GitLocation(Kind.GIT_FILE, dir, gitDir, gitDir);
+        }
+        if(RepositoryCache.FileKey.isGitRepository(dotGit, FS.DETECTED)) {
+            return new GitLocation(Kind.WORK_TREE, dir, dotGit, dotGit);
+        }
+        if(RepositoryCache.FileKey.isGitRepository(dir, FS.DETECTED)) {
+            if(dir.getName().equals(Constants.DOT_GIT)) {
+                return new GitLocation(Kind.WORK_TREE, dir.getParentFile(),
+                    dir, dir);
+            }
+            return new GitLocation(Kind.BARE, null, dir, dir);
+        }
+        return null;
+    }
+
+    /**
+     * Gets the common directory named by the commondir file in the given git
+     * directory.
+     *
+     * @param gitDir
+     * @return The common directory or null if there is no commondir file.
+     */
+    private static File readCommonDir(File gitDir) {
+        File file = new File(gitDir, COMMONDIR);
+        if(!file.isFile()) {
+            return null;
+        }
+        return readPath(file, gitDir);
+    }
+
+    /**
+     * Reads the path in a .git or commondir file. A relative path is relative
+     * to the given directory.
+     *
+     * @param file
+     * @param baseDir
+     * @return The path or null if it cannot be read.
+     */
+    private static File readPath(File file, File baseDir) {
+        String line = readFirstLine(file);
+        if(line == null) {
+            return null;
+        }
+        if(line.startsWith(GITDIR_PREFIX)) {
+            line = line.substring(GITDIR_PREFIX.length()).trim();
+        }
+        if(line.isEmpty()) {
+            return null;
+        }
+        File path = new File(line);
+        if(!path.isAbsolute()) {
+            path = new File(baseDir, line);
+        }
+        return path.toPath().normalize().toFile();
+    }
+
+    /**
+     * Reads the first line of a small file.
+     *
+     * @param file
+     * @return The line without the line ending or null if it cannot be read.
+     */
+    private static String readFirstLine(File file) {
+        try {
+            byte[] buf = IO.readFully(file, 4096);
+            int end = RawParseUtils.nextLF(buf, 0);
+            while(end > 0 && (buf[end - 1] == '\n' || buf[end - 1] == '\r')) {
+                end--;
+            }
+            return RawParseUtils.decode(buf, 0, end);
+        } catch(IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the HEAD of this checkout from its git directory. This is needed
+     * for linked working trees, as a Repository opened on the common
+     * directory has the HEAD of the main working tree.
+     *
+     * @return The full name of the branch or the commit id if HEAD is
+     *         detached.
+     * @throws IOException If HEAD cannot be read.
+     */
+    public String readHead() throws IOException {
+        File file = new File(gitDir, Constants.HEAD);
+        String line = readFirstLine(file);
+        if(line == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        if(line.startsWith("ref:")) {
+            return line.substring("ref:".length()).trim();
+        }
+        return line.trim();
+    }
+
+    /**
+     * Gets the linked working trees made from this repository with git
+     * worktree. Ones whose directory no longer exists are not included.
+     *
+     * @return
+     */
+    public List<File> getLinkedWorkTrees() {
+        List<File> workTrees = new ArrayList<>();
+        if(isLinked()) {
+            return workTrees;
+        }
+        File[] dirs = new File(commonDir, WORKTREES).listFiles();
+        if(dirs == null) {
+            return workTrees;
+        }
+        for(File dir : dirs) {
+            // The gitdir file has the path of the .git file in the working
+            // tree
+            File dotGit = readPath(new File(dir, GITDIR), dir);
+            if(dotGit != null && dotGit.isFile()) {
+                workTrees.add(dotGit.getParentFile());
+            }
+        }
+        return workTrees;
+    }
+
+    /**
+     * Gets the submodules in the working tree that have been checked out.
+     *
+     * @return
+     */
+    public List<File> getSubmodules() {
+        List<File> submodules = new ArrayList<>();
+        if(workTree == null) {
+            return submodules;
+        }
+        File file = new File(workTree, Constants.DOT_GIT_MODULES);
+        if(!file.isFile()) {
+            return submodules;
+        }
+        FileBasedConfig config = new FileBasedConfig(file, FS.DETECTED);
+        try {
+            config.load();
+        } catch(IOException | ConfigInvalidException ex) {
+            return submodules;
+        }
+        for(String name : config
+            .getSubsections(ConfigConstants.CONFIG_SUBMODULE_SECTION)) {
+            String path = config.getString(
+                ConfigConstants.CONFIG_SUBMODULE_SECTION, name,
+                ConfigConstants.CONFIG_KEY_PATH);
+            if(path == null) {
+                continue;
+            }
+            File dir = new File(workTree, path);
+            if(new File(dir, Constants.DOT_GIT).exists()) {
+                submodules.add(dir);
+            }
+        }
+        return submodules;
+    }
+
+    /**
+     * Determines if this is the git directory of a working tree that is
+     * somewhere else, as made by clone --separate-git-dir. It is found as a
+     * bare repository, but its config says it is not bare.
+     *
+     * @return
+     */
+    public boolean isSeparateGitDir() {
+        if(kind != Kind.BARE) {
+            return false;
+        }
+        FileBasedConfig config = new FileBasedConfig(
+            new File(gitDir, Constants.CONFIG), FS.DETECTED);
+        try {
+            config.load();
+        } catch(IOException | ConfigInvalidException ex) {
+            return false;
+        }
+        return !config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+            ConfigConstants.CONFIG_KEY_BARE, true);
+    }
+
+    /**
+     * @return If this is a linked working tree.
+     */
+    public boolean isLinked() {
+        return kind == Kind.LINKED_WORK_TREE;
+    }
+
+    /**
+     * @return If this is a bare repository.
+     */
+    public boolean isBare() {
+        return kind == Kind.BARE;
+    }
+
+    /**
+     * @return The index file of this checkout.
+     */
+    public File getIndexFile() {
+        return new File(gitDir, "index");
+    }
+
+    /**
+     * @return The value of kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The value of workTree, which is null for a bare repository.
+     */
+    public File getWorkTree() {
+        return workTree;
+    }
+
+    /**
+     * @return The value of gitDir.
+     */
+    public File getGitDir() {
+        return gitDir;
+    }
+
+    /**
+     * @return The value of commonDir.
+     */
+    public File getCommonDir() {
+        return commonDir;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + (workTree != null ? workTree : gitDir);
+    }
+
+}
@@ -1,16 +1,40 @@
 package net.kenevans.git.repositorymanager.utils;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BranchTrackingStatus;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.revwalk.RevWalkUtils;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
 
 /*
  * Created on Jun 18, 2016
@@ -19,6 +43,9 @@ import org.eclipse.jgit.revwalk.filter.RevFilter;
 
 public class JGitUtilities
 {
+    /** The cache for the ahead and behind counts or null for none. */
+    private static volatile DivergenceCache divergenceCache;
+
     /**
      * List the counts for tracking information.
      * 
@@ -42,25 +69,468 @@ public class JGitUtilities
         return counts;
     }
 
+    /**
+     * Determines if the working tree and index are clean, the same as
+     * Status.isClean(), but stops at the first difference instead of
+     * collecting all of them. HEAD, the index, and the working tree are walked
+     * together with the same filter the StatusCommand uses.
+     * 
+     * @param repository
+     * @return
+     * @throws IOException
+     */
+    public static boolean isClean(Repository repository) throws IOException {
+        return isClean(repository,
+            repository.resolve(Constants.HEAD + "^{tree}"),
+            repository.readDirCache(), new FileTreeIterator(repository));
+    }
+
+    /**
+     * Determines if the working tree and index of the given location are
+     * clean. For a linked working tree the Repository is the one for the
+     * common directory, and the HEAD, index, and working tree of the location
+     * are used instead of its own. A bare repository is clean.
+     * 
+     * @param repository The Repository from RepositoryPool.acquire().
+     * @param location
+     * @return
+     * @throws IOException
+     */
+    public static boolean isClean(Repository repository, GitLocation location)
+        throws IOException {
+        if(location.isBare()) {
+            return true;
+        }
+        if(!location.isLinked()) {
+            return isClean(repository);
+        }
+        ObjectId head = resolveHead(repository, location);
+        return isClean(repository,
+            head == null ? null : repository.resolve(head.name() + "^{tree}"),
+            DirCache.read(location.getIndexFile(), repository.getFS()),
+            new LinkedWorkTreeIterator(repository, location.getWorkTree()));
+    }
+
+    /**
+     * Walks the given HEAD tree, index, and working tree until the first
+     * difference.
+     * 
+     * @param repository
+     * @param headTree The HEAD tree or null if there is no commit yet.
+     * @param dirCache
+     * @param workTree
+     * @return
+     * @throws IOException
+     */
+    private static boolean isClean(Repository repository, ObjectId headTree,
+        DirCache dirCache, FileTreeIterator workTree) throws IOException {
+        TreeWalk walk = new TreeWalk(repository);
+        try {
+            walk.setOperationType(OperationType.CHECKIN_OP);
+            walk.setRecursive(true);
+            if(headTree != null) {
+                walk.addTree(headTree);
+            } else {
+                walk.addTree(new EmptyTreeIterator());
+            }
+            walk.addTree(new DirCacheIterator(dirCache));
+            walk.addTree(workTree);
+            workTree.setDirCacheIterator(walk, 1);
+            walk.setFilter(AndTreeFilter.create(new SkipWorkTreeFilter(1),
+                new IndexDiffFilter(1, 2)));
+            // Any path that gets through the filter is a change
+            return !walk.next();
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * Calculates the full status of the given location. For a linked working
+     * tree a separate Repository with its index and working tree is opened
+     * and closed, as a Repository for the common directory has those of the
+     * main working tree.
+     * 
+     * @param repository The Repository from RepositoryPool.acquire().
+     * @param location
+     * @return
+     * @throws Exception
+     */
+    public static Status getStatus(Repository repository, GitLocation location)
+        throws Exception {
+        if(!location.isLinked()) {
+            return Git.wrap(repository).status().call();
+        }
+        ObjectId head = resolveHead(repository, location);
+        Repository workTreeRepository = new FileRepositoryBuilder()
+            .setGitDir(location.getCommonDir())
+            .setWorkTree(location.getWorkTree())
+            .setIndexFile(location.getIndexFile()).setMustExist(true).build();
+        try {
+            IndexDiff diff = new IndexDiff(workTreeRepository,
+                head == null ? null
+                    : repository.resolve(head.name() + "^{tree}"),
+                new FileTreeIterator(workTreeRepository));
+            diff.diff();
+            return new Status(diff);
+        } finally {
+            workTreeRepository.close();
+        }
+    }
+
+    /**
+     * Gets the full name of the current branch of the given location, or the
+     * commit id if HEAD is detached, the same as Repository.getFullBranch()
+     * but for linked working trees as well.
+     * 
+     * @param repository The Repository from RepositoryPool.acquire().
+     * @param location
+     * @return
+     * @throws IOException
+     */
+    public static String getFullBranch(Repository repository,
+        GitLocation location) throws IOException {
+        if(!location.isLinked()) {
+            return repository.getFullBranch();
+        }
+        return location.readHead();
+    }
+
+    /**
+     * Gets the commit HEAD of the given location points to.
+     * 
+     * @param repository The Repository from RepositoryPool.acquire().
+     * @param location
+     * @return The commit or null if the branch has no commits yet.
+     * @throws IOException
+     */
+    public static ObjectId resolveHead(Repository repository,
+        GitLocation location) throws IOException {
+        String head = getFullBranch(repository, location);
+        if(head == null) {
+            return null;
+        }
+        if(ObjectId.isId(head)) {
+            return ObjectId.fromString(head);
+        }
+        Ref ref = repository.exactRef(head);
+        return ref == null ? null : ref.getObjectId();
+    }
+
+    /**
+     * Calculates how many commits the local branch is ahead of and behind the
+     * tracking branch.
+     * 
+     * @param repository
+     * @param local
+     * @param tracking
+     * @return List of the ahead and behind counts.
+     * @throws IOException
+     */
     public static List<Integer> calculateDivergence(Repository repository,
         Ref local, Ref tracking) throws IOException {
-        RevWalk walk = new RevWalk(repository);
+        List<RefPair> pairs = new ArrayList<>();
+        pairs.add(new RefPair(local, tracking));
+        int[] result = calculateDivergences(repository, pairs).get(0);
         List<Integer> counts = new ArrayList<>();
+        counts.add(result[0]);
+        counts.add(result[1]);
+        return counts;
+    }
+
+    /**
+     * Calculates how many commits the local branch is ahead of and behind the
+     * remote branch for each of the given pairs. Pairs that are in the
+     * DivergenceCache are taken from it. The rest are done in one walk of the
+     * history, with each branch tip marked by its own bit that is carried to
+     * its ancestors. The walk stops once the remaining commits are
+     * reachable from every tip, so the cost depends on the size of the
+     * history that differs, not on the number of pairs.
+     * 
+     * @param repository
+     * @param pairs
+     * @return Array of the ahead and behind counts for each pair in the same
+     *         order as the pairs.
+     * @throws IOException
+     */
+    public static List<int[]> calculateDivergences(Repository repository,
+        List<RefPair> pairs) throws IOException {
+        DivergenceCache cache = divergenceCache;
+        if(cache == null) {
+            return calculateUncachedDivergences(repository, pairs);
+        }
+        int[][] counts = new int[pairs.size()][];
+        List<RefPair> misses = new ArrayList<>();
+        List<Integer> missIndices = new ArrayList<>();
+        for(int i = 0; i < pairs.size(); i++) {
+            ObjectId local = pairs.get(i).getLocal().getObjectId();
+            ObjectId remote = pairs.get(i).getRemote().getObjectId();
+            if(local != null && remote != null) {
+                counts[i] = cache.get(local, remote);
+            }
+            if(counts[i] == null) {
+                misses.add(pairs.get(i));
+                missIndices.add(i);
+            }
+        }
+        if(misses.size() > 0) {
+            List<int[]> missCounts = calculateUncachedDivergences(repository,
+                misses);
+            for(int i = 0; i < misses.size(); i++) {
+                int[] result = missCounts.get(i);
+                counts[missIndices.get(i)] = result;
+                ObjectId local = misses.get(i).getLocal().getObjectId();
+                ObjectId remote = misses.get(i).getRemote().getObjectId();
+                if(local != null && remote != null) {
+                    cache.put(local, remote, result[0], result[1]);
+                }
+            }
+        }
+        return Arrays.asList(counts);
+    }
+
+    /**
+     * Calculates the counts for the given pairs without using the
+     * DivergenceCache. All the pairs are done in one walk of the history.
+     * 
+     * @param repository
+     * @param pairs
+     * @return
+     * @throws IOException
+     */
+    private static List<int[]> calculateUncachedDivergences(
+        Repository repository, List<RefPair> pairs) throws IOException {
+        DivergenceWalk walk = new DivergenceWalk(repository);
+        List<int[]> counts = new ArrayList<>(pairs.size());
         try {
-            RevCommit localCommit = walk.parseCommit(local.getObjectId());
-            RevCommit trackingCommit = walk.parseCommit(tracking.getObjectId());
-            walk.setRevFilter(RevFilter.MERGE_BASE);
-            walk.markStart(localCommit);
-            walk.markStart(trackingCommit);
-            RevCommit mergeBase = walk.next();
-            walk.reset();
-            walk.setRevFilter(RevFilter.ALL);
-            counts.add(RevWalkUtils.count(walk, localCommit, mergeBase));
-            counts.add(RevWalkUtils.count(walk, trackingCommit, mergeBase));
+            // Give each tip a bit and start the walk from it
+            Map<ObjectId, Integer> tipIndices = new HashMap<>();
+            List<TipCommit> tips = new ArrayList<>();
+            for(RefPair pair : pairs) {
+                for(Ref ref : new Ref[] {pair.getLocal(), pair.getRemote()}) {
+                    ObjectId id = ref.getObjectId();
+                    if(id == null || tipIndices.containsKey(id)) continue;
+                    TipCommit commit = (TipCommit)walk.parseCommit(id);
+                    commit.tips.set(tips.size());
+                    walk.markStart(commit);
+                    tipIndices.put(id, tips.size());
+                    tips.add(commit);
+                }
+            }
+            final int nTips = tips.size();
+            // Carry the tips to the parents as the commits are walked. A
+            // commit reachable from every tip is in no count, and neither
+            // are its ancestors, so mark it uninteresting to end the walk
+            // there.
+            walk.setRevFilter(new RevFilter() {
+                @Override
+                public boolean include(RevWalk walker, RevCommit commit) {
+                    BitSet bits = ((TipCommit)commit).tips;
+                    for(RevCommit parent : commit.getParents()) {
+                        ((TipCommit)parent).tips.or(bits);
+                    }
+                    if(bits.cardinality() == nTips) {
+                        commit.add(RevFlag.UNINTERESTING);
+                        return false;
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean requiresCommitBody() {
+                    return false;
+                }
+
+                @Override
+                public RevFilter clone() {
+                    return this;
+                }
+            });
+            List<TipCommit> commits = new ArrayList<>();
+            RevCommit commit;
+            while((commit = walk.next()) != null) {
+                commits.add((TipCommit)commit);
+            }
+
+            // The walk ends a few commits after everything left in it is
+            // uninteresting, so the tips of the commits still in it, and of
+            // ones reached out of commit time order, as when the clocks were
+            // wrong, have not all been carried. They are a subset of the
+            // real ones, so ending the walk is still safe, but carry them
+            // over all the commits the walk has parsed before counting.
+            for(TipCommit cur : getChildrenFirst(walk, tips)) {
+                RevCommit[] parents = cur.getParents();
+                if(parents == null) continue;
+                for(RevCommit parent : parents) {
+                    ((TipCommit)parent).tips.or(cur.tips);
+                }
+            }
+
+            // Commits with the same tips count the same for every pair
+            Map<BitSet, Integer> histogram = new HashMap<>();
+            for(TipCommit cur : commits) {
+                Integer count = histogram.get(cur.tips);
+                histogram.put(cur.tips, count == null ? 1 : count + 1);
+            }
+            for(RefPair pair : pairs) {
+                Integer localIndex = tipIndices
+                    .get(pair.getLocal().getObjectId());
+                Integer remoteIndex = tipIndices
+                    .get(pair.getRemote().getObjectId());
+                int[] result = new int[2];
+                if(localIndex != null && remoteIndex != null) {
+                    for(Map.Entry<BitSet, Integer> entry : histogram
+                        .entrySet()) {
+                        boolean local = entry.getKey().get(localIndex);
+                        boolean remote = entry.getKey().get(remoteIndex);
+                        if(local && !remote) {
+                            result[0] += entry.getValue();
+                        } else if(remote && !local) {
+                            result[1] += entry.getValue();
+                        }
+                    }
+                }
+                counts.add(result);
+            }
         } finally {
             walk.dispose();
         }
         return counts;
     }
 
+    /**
+     * Gets the commits that have been parsed and are reachable from the
+     * given tips in reverse topological order, so each commit comes before
+     * its parents. Commits that have not been parsed are left out, and so
+     * are their ancestors.
+     * 
+     * @param walk
+     * @param tips
+     * @return
+     */
+    private static List<TipCommit> getChildrenFirst(RevWalk walk,
+        List<TipCommit> tips) {
+        RevFlag visited = walk.newFlag("visited");
+        List<TipCommit> order = new ArrayList<>();
+        // Each commit is added after its parents, then the order is reversed
+        ArrayDeque<TipCommit> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> nextParents = new ArrayDeque<>();
+        for(TipCommit tip : tips) {
+            if(tip.has(visited)) continue;
+            tip.add(visited);
+            stack.push(tip);
+            nextParents.push(0);
+            while(!stack.isEmpty()) {
+                TipCommit cur = stack.peek();
+                int next = nextParents.pop();
+                RevCommit[] parents = cur.getParents();
+                if(parents != null && next < parents.length) {
+                    nextParents.push(next + 1);
+                    TipCommit parent = (TipCommit)parents[next];
+                    if(!parent.has(visited)) {
+                        parent.add(visited);
+                        stack.push(parent);
+                        nextParents.push(0);
+                    }
+                } else {
+                    stack.pop();
+                    order.add(cur);
+                }
+            }
+        }
+        walk.disposeFlag(visited);
+        Collections.reverse(order);
+        return order;
+    }
+
+    /**
+     * @return The cache used by calculateDivergences() or null if there is
+     *         none.
+     */
+    public static DivergenceCache getDivergenceCache() {
+        return divergenceCache;
+    }
+
+    /**
+     * Sets the cache used by calculateDivergences().
+     * 
+     * @param divergenceCache The cache or null for none.
+     */
+    public static void setDivergenceCache(DivergenceCache divergenceCache) {
+        JGitUtilities.divergenceCache = divergenceCache;
+    }
+
+    /**
+     * DivergenceWalk is a RevWalk whose commits keep the set of branch tips
+     * they are reachable from.
+     */
+    private static class DivergenceWalk extends RevWalk
+    {
+        private DivergenceWalk(Repository repository) {
+            super(repository);
+        }
+
+        @Override
+        protected RevCommit createCommit(AnyObjectId id) {
+            return new TipCommit(id);
+        }
+    }
+
+    /**
+     * TipCommit is a commit with the set of branch tips it is reachable
+     * from, by the index of the tip. A BitSet is used rather than a RevFlag
+     * for each tip, because a RevWalk only has 26 flags to give out,
+     * and a repository can have many more branches than that.
+     */
+    private static class TipCommit extends RevCommit
+    {
+        private static final long serialVersionUID = 1L;
+        private final BitSet tips = new BitSet();
+
+        private TipCommit(AnyObjectId id) {
+            super(id);
+        }
+    }
+
+    /**
+     * LinkedWorkTreeIterator is a FileTreeIterator for a linked working tree
+     * that uses the ignore rules of the Repository for the common directory.
+     */
+    private static class LinkedWorkTreeIterator extends FileTreeIterator
+    {
+        private LinkedWorkTreeIterator(Repository repository, File root) {
+            super(root, repository.getFS(),
+                repository.getConfig().get(WorkingTreeOptions.KEY));
+            initRootIterator(repository);
+        }
+    }
+
+    /**
+     * RefPair is a local branch and a remote branch to compare.
+     */
+    public static final class RefPair
+    {
+        private final Ref local;
+        private final Ref remote;
+
+        public RefPair(Ref local, Ref remote) {
+            this.local = local;
+            this.remote = remote;
+        }
+
+        /**
+         * @return The value of local.
+         */
+        public Ref getLocal() {
+            return local;
+        }
+
+        /**
+         * @return The value of remote.
+         */
+        public Ref getRemote() {
+            return remote;
+        }
+    }
+
 }
@@ -0,0 +1,204 @@
+package net.kenevans.git.repositorymanager.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * RepositoryPool keeps open JGit Repository handles keyed by their common
+ * directory so they can be reused, for example by several steps of a
+ * refresh. Linked working trees share the Repository of the repository they
+ * were made from, so its pack files are only opened once. When there are
+ * more than the maximum number open, the least recently used ones that are
+ * not in use are closed. Every Repository from acquire() must be given back
+ * with release(), and closeAll() closes all of them.
+ *
+ * @author Kenneth Evans, Jr.
+ */
+public class RepositoryPool
+{
+    /** Open entries by common directory in least recently used order. */
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16,
+        .75f, true);
+    /** The same entries by Repository for release(). */
+    private final Map<Repository, Entry> inUse = new IdentityHashMap<>();
+    private int maxOpen;
+
+    /**
+     * RepositoryPool constructor.
+     *
+     * @param maxOpen The maximum number of repositories to keep open when not
+     *            in use.
+     */
+    public RepositoryPool(int maxOpen) {
+        this.maxOpen = Math.max(1, maxOpen);
+    }
+
+    /**
+     * Gets an open Repository for the given working tree or git directory,
+     * opening it if necessary. It must be given back with release().
+     *
+     * @param dir The working tree or the git directory.
+     * @return
+     * @throws RepositoryNotFoundException If there is no repository there.
+     * @throws IOException
+     */
+    public Repository acquire(File dir) throws IOException {
+        GitLocation location = GitLocation.resolve(dir);
+        if(location == null) {
+            throw new RepositoryNotFoundException(dir);
+        }
+        return acquire(location);
+    }
+
+    /**
+     * Gets an open Repository for the given location, opening it if
+     * necessary. For a linked working tree this is the Repository for its
+     * common directory, which has the HEAD and index of the main working
+     * tree. It must be given back with release().
+     *
+     * @param location
+     * @return
+     * @throws IOException
+     */
+    public Repository acquire(GitLocation location) throws IOException {
+        File gitDir = location.getCommonDir().getAbsoluteFile();
+        synchronized(this) {
+            Entry entry = entries.get(gitDir);
+            if(entry == null) {
+                FileRepositoryBuilder builder = new FileRepositoryBuilder()
+                    .setGitDir(gitDir).setMustExist(true);
+                if(!location.isLinked() && location.getWorkTree() != null) {
+                    builder.setWorkTree(location.getWorkTree());
+                }
+                Repository repository = builder.build();
+                entry = new Entry(gitDir, repository);
+                entries.put(gitDir, entry);
+            }
+            entry.useCount++;
+            inUse.put(entry.repository, entry);
+            evict();
+            return entry.repository;
+        }
+    }
+
+    /**
+     * Gives back a Repository from acquire(). It stays open until it is
+     * evicted or closeAll() is called.
+     *
+     * @param repository
+     */
+    public synchronized void release(Repository repository) {
+        if(repository == null) {
+            return;
+        }
+        Entry entry = inUse.get(repository);
+        if(entry == null) {
+            return;
+        }
+        entry.useCount--;
+        if(entry.useCount > 0) {
+            return;
+        }
+        inUse.remove(repository);
+        if(entry.closePending) {
+            entries.remove(entry.gitDir);
+            entry.repository.close();
+        } else {
+            evict();
+        }
+    }
+
+    /**
+     * Closes the least recently used repositories that are not in use until
+     * no more than maxOpen are open.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while(entries.size() > maxOpen && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if(entry.useCount == 0) {
+                iterator.remove();
+                entry.repository.close();
+            }
+        }
+    }
+
+    /**
+     * Closes all the repositories. Ones that are in use are closed when they
+     * are released.
+     */
+    public synchronized void closeAll() {
+        for(Iterator<Entry> iterator = entries.values().iterator(); iterator
+            .hasNext();) {
+            Entry entry = iterator.next();
+            if(entry.useCount == 0) {
+                iterator.remove();
+                entry.repository.close();
+            } else {
+                entry.closePending = true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of open repositories.
+     */
+    public synchronized int getOpenCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return The value of maxOpen.
+     */
+    public synchronized int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * @param maxOpen The new value for maxOpen.
+     */
+    public synchronized void setMaxOpen(int maxOpen) {
+        this.maxOpen = Math.max(1, maxOpen);
+        evict();
+    }
+
+    /**
+     * Sets the limits for the JGit pack file cache, which is shared by all
+     * repositories. Pack files beyond these limits are closed by JGit.
+     *
+     * @param openFiles The maximum number of open pack files.
+     * @param limitMb The maximum memory in MB used for pack file data.
+     */
+    public static void configureWindowCache(int openFiles, int limitMb) {
+        WindowCacheConfig config = new WindowCacheConfig();
+        config.setPackedGitOpenFiles(Math.max(1, openFiles));
+        config.setPackedGitLimit(Math.max(1, limitMb) * 1024L * 1024L);
+        config.install();
+    }
+
+    /**
+     * Entry is an open repository and how many are using it.
+     */
+    private static class Entry
+    {
+        private final File gitDir;
+        private final Repository repository;
+        private int useCount;
+        private boolean closePending;
+
+        private Entry(File gitDir, Repository repository) {
+            this.gitDir = gitDir;
+            this.repository = repository;
+        }
+    }
+
+}